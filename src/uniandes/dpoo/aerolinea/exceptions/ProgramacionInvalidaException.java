@@ -0,0 +1,33 @@
+package uniandes.dpoo.aerolinea.exceptions;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Esta excepción se usa para indicar que no se pudo programar un conjunto de vuelos porque algunas de las solicitudes tenían problemas.
+ * 
+ * Cuando se lanza esta excepción no se programó ninguno de los vuelos del conjunto.
+ */
+@SuppressWarnings("serial")
+public class ProgramacionInvalidaException extends Exception
+{
+    /**
+     * Los problemas encontrados. Las llaves son las posiciones de las solicitudes con problemas (contando desde 0) y los valores describen el problema de cada una.
+     */
+    private Map<Integer, String> errores;
+
+    public ProgramacionInvalidaException( Map<Integer, String> errores )
+    {
+        super( "Se encontraron problemas en " + errores.size( ) + " de los vuelos que se querían programar" );
+        this.errores = errores;
+    }
+
+    /**
+     * Retorna los problemas encontrados en las solicitudes
+     * @return Un mapa donde las llaves son las posiciones de las solicitudes con problemas (contando desde 0) y los valores describen el problema de cada una
+     */
+    public Map<Integer, String> getErrores( )
+    {
+        return Collections.unmodifiableMap( errores );
+    }
+}
@@ -1,23 +1,39 @@
 package uniandes.dpoo.aerolinea.modelo;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
 
 import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteException;
+import uniandes.dpoo.aerolinea.exceptions.ProgramacionInvalidaException;
 import uniandes.dpoo.aerolinea.exceptions.VueloSobrevendidoException;
 import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
+import uniandes.dpoo.aerolinea.persistencia.BitacoraAerolinea;
 import uniandes.dpoo.aerolinea.persistencia.CentralPersistencia;
 import uniandes.dpoo.aerolinea.persistencia.IPersistenciaAerolinea;
 import uniandes.dpoo.aerolinea.persistencia.IPersistenciaTiquetes;
 import uniandes.dpoo.aerolinea.persistencia.TipoInvalidoException;
+import uniandes.dpoo.aerolinea.tiquetes.AlmacenTiquetes;
 import uniandes.dpoo.aerolinea.tiquetes.Tiquete;
-import uniandes.dpoo.aerolinea.tarifas.CalculadoraTarifas;
-import uniandes.dpoo.aerolinea.tarifas.CalculadoraTarifasTemporadaAlta;
-import uniandes.dpoo.aerolinea.tarifas.CalculadoraTarifasTemporadaBaja;
+import uniandes.dpoo.aerolinea.tarifas.MotorTarifas;
 
 
 /**
@@ -28,14 +44,25 @@ import uniandes.dpoo.aerolinea.tarifas.CalculadoraTarifasTemporadaBaja;
  * 
  * Por otro lado, esta clase implementa algunas funcionalidades adicionales a su rol como estructurador, para lo cual se apoya en las otras clases que hacen parte del
  * proyecto.
+ * 
+ * La aerolínea se puede usar desde varios hilos a la vez. Las contenedoras son concurrentes, así que las consultas (getVuelo, getCliente, getRuta, etc.) no usan candados. Las
+ * modificaciones se coordinan por partes: la programación de vuelos usa el candado de la agenda de cada avión, la venta de tiquetes reserva los asientos de cada vuelo con
+ * una operación atómica y cada cliente protege su propia lista de tiquetes.
  */
 public class Aerolinea
 {
     /**
-     * Una lista con los aviones de los que dispone la aerolínea
+     * Una lista con los aviones de los que dispone la aerolínea. Como casi nunca cambia, se copia cada vez que se agrega un avión.
      */
     private List<Avion> aviones;
 
+    /**
+     * Un mapa con las agendas de los aviones de la aerolínea.
+     * 
+     * Las llaves del mapa son los nombres de los aviones, mientras que los valores son las agendas con los intervalos en los que cada avión ya tiene vuelos programados
+     */
+    private Map<String, AgendaAvion> agendasAviones;
+
     /**
      * Un mapa con las rutas que cubre la aerolínea.
      * 
@@ -44,9 +71,28 @@ public class Aerolinea
     private Map<String, Ruta> rutas;
 
     /**
-     * Una lista de los vuelos programados por la aerolínea
+     * El grafo de las rutas de la aerolínea, que se usa para buscar itinerarios con conexiones. Se actualiza cada vez que se agrega una ruta.
+     */
+    private RedRutas redRutas;
+
+    /**
+     * Los vuelos programados por la aerolínea, en el orden en el que se programaron
+     */
+    private Collection<Vuelo> vuelos;
+
+    /**
+     * Un índice de los vuelos programados por la aerolínea.
+     * 
+     * Las llaves del mapa son los códigos de las rutas, mientras que los valores son mapas ordenados por fecha con los vuelos de cada ruta. Este índice se mantiene
+     * sincronizado con la lista de vuelos y permite encontrar un vuelo, o los vuelos de una ruta en un rango de fechas, sin recorrer todos los vuelos.
+     */
+    private Map<String, NavigableMap<LocalDate, Vuelo>> vuelosPorRuta;
+
+    /**
+     * Las rutas y fechas de los vuelos que se están programando. Un vuelo queda reservado aquí mientras se revisa la agenda de su avión y se registra en la bitácora, y sólo
+     * pasa al índice de vuelos cuando ya no se puede deshacer. Así, nadie puede encontrar ni venderle tiquetes a un vuelo que al final no se programa.
      */
-    private List<Vuelo> vuelos;
+    private Set<String> vuelosEnProgramacion;
 
     /**
      * Un mapa con los clientes de la aerolínea.
@@ -55,15 +101,35 @@ public class Aerolinea
      */
     private Map<String, Cliente> clientes;
 
+    /**
+     * La bitácora donde se registran los cambios de la aerolínea, o null si la aerolínea no tiene bitácora
+     */
+    private BitacoraAerolinea bitacora;
+
+    /**
+     * La tabla de conexiones que se mantiene actualizada con los vuelos programados, o null si la aerolínea no tiene tabla
+     */
+    private TablaConexiones tablaConexiones;
+
+    /**
+     * El almacén donde se guardan de forma compacta los tiquetes de los vuelos realizados. Los tiquetes de los vuelos que no se han realizado siguen siendo objetos en el heap.
+     */
+    private AlmacenTiquetes almacenTiquetes;
+
     /**
      * Construye una nueva aerolínea con un nombre e inicializa todas las contenedoras con estructuras vacías
      */
     public Aerolinea( )
     {
-        aviones = new LinkedList<Avion>( );
-        rutas = new HashMap<String, Ruta>( );
-        vuelos = new LinkedList<Vuelo>( );
-        clientes = new HashMap<String, Cliente>( );
+        aviones = new CopyOnWriteArrayList<Avion>( );
+        agendasAviones = new ConcurrentHashMap<String, AgendaAvion>( );
+        rutas = new ConcurrentHashMap<String, Ruta>( );
+        redRutas = new RedRutas( );
+        vuelos = new ConcurrentLinkedQueue<Vuelo>( );
+        vuelosPorRuta = new ConcurrentHashMap<String, NavigableMap<LocalDate, Vuelo>>( );
+        vuelosEnProgramacion = ConcurrentHashMap.newKeySet( );
+        clientes = new ConcurrentHashMap<String, Cliente>( );
+        almacenTiquetes = new AlmacenTiquetes( );
     }
 
     // ************************************************************************************
@@ -80,6 +146,7 @@ public class Aerolinea
     public void agregarRuta( Ruta ruta )
     {
         this.rutas.put( ruta.getCodigoRuta( ), ruta );
+        this.redRutas.agregarRuta( ruta );
     }
 
     /**
@@ -89,6 +156,7 @@ public class Aerolinea
     public void agregarAvion( Avion avion )
     {
         this.aviones.add( avion );
+        agendasAviones.putIfAbsent( avion.getNombre( ), new AgendaAvion( avion ) );
     }
 
     /**
@@ -120,6 +188,61 @@ public class Aerolinea
         return this.clientes.get( identificadorCliente );
     }
 
+    /**
+     * Asocia una bitácora a la aerolínea. A partir de ese momento, cada vuelo programado, venta de tiquetes y vuelo realizado se registra en la bitácora.
+     * @param bitacora La bitácora, o null si no se quiere seguir registrando los cambios
+     */
+    public void setBitacora( BitacoraAerolinea bitacora )
+    {
+        this.bitacora = bitacora;
+    }
+
+    /**
+     * Retorna la bitácora asociada a la aerolínea
+     * @return La bitácora, o null si la aerolínea no tiene bitácora
+     */
+    public BitacoraAerolinea getBitacora( )
+    {
+        return bitacora;
+    }
+
+    /**
+     * Asocia una tabla de conexiones a la aerolínea. A partir de ese momento, la tabla se actualiza cuando se programan vuelos de rutas que no tenía.
+     * @param tablaConexiones La tabla, o null si no se quiere seguir actualizando la tabla
+     */
+    public void setTablaConexiones( TablaConexiones tablaConexiones )
+    {
+        this.tablaConexiones = tablaConexiones;
+    }
+
+    /**
+     * Retorna la tabla de conexiones asociada a la aerolínea
+     * @return La tabla, o null si la aerolínea no tiene tabla
+     */
+    public TablaConexiones getTablaConexiones( )
+    {
+        return tablaConexiones;
+    }
+
+    /**
+     * Cambia el almacén donde se guardan los tiquetes de los vuelos que se archiven de ahí en adelante. Por ejemplo, para que los tiquetes de los vuelos realizados queden
+     * por fuera del heap, se puede usar un almacén que use un archivo proyectado en memoria. Los vuelos que ya estaban archivados siguen usando el almacén anterior.
+     * @param almacenTiquetes El almacén
+     */
+    public void setAlmacenTiquetes( AlmacenTiquetes almacenTiquetes )
+    {
+        this.almacenTiquetes = almacenTiquetes;
+    }
+
+    /**
+     * Retorna el almacén donde se guardan los tiquetes de los vuelos archivados
+     * @return El almacén
+     */
+    public AlmacenTiquetes getAlmacenTiquetes( )
+    {
+        return almacenTiquetes;
+    }
+
     /**
      * Retorna todos los aviones de la aerolínea
      * @return
@@ -138,6 +261,30 @@ public class Aerolinea
         return rutas.values( );
     }
 
+    /**
+     * Retorna todos los aeropuertos que son origen o destino de alguna de las rutas de la aerolínea, sin repetir
+     * @return
+     */
+    public Collection<Aeropuerto> getAeropuertos( )
+    {
+        Map<String, Aeropuerto> aeropuertos = new LinkedHashMap<String, Aeropuerto>( );
+        for( Ruta ruta : rutas.values( ) )
+        {
+            aeropuertos.putIfAbsent( ruta.getOrigen( ).getCodigo( ), ruta.getOrigen( ) );
+            aeropuertos.putIfAbsent( ruta.getDestino( ).getCodigo( ), ruta.getDestino( ) );
+        }
+        return aeropuertos.values( );
+    }
+
+    /**
+     * Retorna el grafo de las rutas de la aerolínea
+     * @return
+     */
+    public RedRutas getRedRutas( )
+    {
+        return redRutas;
+    }
+
     /**
      * Retorna la ruta de la aerolínea que tiene el código dado
      * @param codigoRuta El código de la ruta buscada
@@ -165,12 +312,49 @@ public class Aerolinea
      */
     public Vuelo getVuelo( String codigoRuta, String fechaVuelo )
     {
-    	for (Vuelo vuelo : vuelos) {
-            if (vuelo.getRuta().getCodigoRuta().equals(codigoRuta) && vuelo.getFecha().equals(fechaVuelo)) {
-                return vuelo;
-            }
+        NavigableMap<LocalDate, Vuelo> vuelosRuta = vuelosPorRuta.get( codigoRuta );
+        LocalDate fecha = interpretarFecha( fechaVuelo );
+        if( vuelosRuta == null || fecha == null )
+            return null;
+
+        return vuelosRuta.get( fecha );
+    }
+
+    /**
+     * Busca los vuelos programados para una ruta entre dos fechas, incluyendo ambas fechas.
+     * @param codigoRuta El código de la ruta
+     * @param fechaInicial La primera fecha del rango, en formato ISO (por ejemplo, '2024-11-05')
+     * @param fechaFinal La última fecha del rango, en formato ISO
+     * @return Los vuelos de la ruta en el rango, ordenados por fecha. Si la ruta no tiene vuelos o alguna de las fechas no es válida, retorna una colección vacía.
+     */
+    public Collection<Vuelo> getVuelos( String codigoRuta, String fechaInicial, String fechaFinal )
+    {
+        NavigableMap<LocalDate, Vuelo> vuelosRuta = vuelosPorRuta.get( codigoRuta );
+        LocalDate inicio = interpretarFecha( fechaInicial );
+        LocalDate fin = interpretarFecha( fechaFinal );
+        if( vuelosRuta == null || inicio == null || fin == null || inicio.isAfter( fin ) )
+            return Collections.emptyList( );
+
+        return Collections.unmodifiableCollection( vuelosRuta.subMap( inicio, true, fin, true ).values( ) );
+    }
+
+    /**
+     * Interpreta una fecha en formato ISO (por ejemplo, '2024-11-05')
+     * @param fecha La cadena con la fecha
+     * @return La fecha interpretada, o null si la cadena no corresponde a una fecha válida
+     */
+    private static LocalDate interpretarFecha( String fecha )
+    {
+        if( fecha == null )
+            return null;
+        try
+        {
+            return LocalDate.parse( fecha );
+        }
+        catch( DateTimeParseException e )
+        {
+            return null;
         }
-        return null;
     }
 
     /**
@@ -183,17 +367,12 @@ public class Aerolinea
     }
 
     /**
-     * Retorna todos los tiquetes de la aerolínea, los cuales se recolectan vuelo por vuelo
-     * @return
+     * Retorna todos los tiquetes de la aerolínea, los cuales se recorren vuelo por vuelo sin copiarlos
+     * @return Una vista de solo lectura que refleja los tiquetes que tengan los vuelos cada vez que se recorre. Se puede recorrer en paralelo con parallelStream.
      */
     public Collection<Tiquete> getTiquetes( )
     {
-    	List<Tiquete> tiquetes = new LinkedList<>();
-        for (Vuelo vuelo : vuelos) {
-            tiquetes.addAll(vuelo.getTiquetes());
-        }
-        return tiquetes;
-
+        return new TiquetesAerolinea( vuelos );
     }
 
     // ************************************************************************************
@@ -205,28 +384,28 @@ public class Aerolinea
     /**
      * Carga toda la información de la aerolínea a partir de un archivo
      * @param archivo El nombre del archivo.
-     * @param tipoArchivo El tipo del archivo. Puede ser CentralPersistencia.JSON o CentralPersistencia.PLAIN.
+     * @param tipoArchivo El tipo del archivo. Puede ser CentralPersistencia.PLAIN o CentralPersistencia.BINARIO.
      * @throws TipoInvalidoException Se lanza esta excepción si se indica un tipo de archivo inválido
      * @throws IOException Lanza esta excepción si hay problemas leyendo el archivo
      * @throws InformacionInconsistenteException Lanza esta excepción si durante la carga del archivo se encuentra información que no es consistente
      */
     public void cargarAerolinea( String archivo, String tipoArchivo ) throws TipoInvalidoException, IOException, InformacionInconsistenteException
     {
-    	IPersistenciaTiquetes cargador = CentralPersistencia.getPersistenciaTiquetes(tipoArchivo);
-        cargador.cargarTiquetes(archivo, this);
+        IPersistenciaAerolinea cargador = CentralPersistencia.getPersistenciaAerolinea( tipoArchivo );
+        cargador.cargarAerolinea( archivo, this );
     }
 
     /**
      * Salva la información de la aerlínea en un archivo
      * @param archivo El nombre del archivo.
-     * @param tipoArchivo El tipo del archivo. Puede ser CentralPersistencia.JSON o CentralPersistencia.PLAIN.
+     * @param tipoArchivo El tipo del archivo. Puede ser CentralPersistencia.PLAIN o CentralPersistencia.BINARIO.
      * @throws TipoInvalidoException Se lanza esta excepción si se indica un tipo de archivo inválido
      * @throws IOException Lanza esta excepción si hay problemas escribiendo en el archivo
      */
     public void salvarAerolinea( String archivo, String tipoArchivo ) throws TipoInvalidoException, IOException
     {
-    	IPersistenciaTiquetes cargador = CentralPersistencia.getPersistenciaTiquetes(tipoArchivo);
-        cargador.salvarTiquetes(archivo, this);
+        IPersistenciaAerolinea cargador = CentralPersistencia.getPersistenciaAerolinea( tipoArchivo );
+        cargador.salvarAerolinea( archivo, this );
     }
 
     /**
@@ -276,27 +455,328 @@ public class Aerolinea
      */
     public void programarVuelo( String fecha, String codigoRuta, String nombreAvion ) throws Exception
     {
-        Avion avion = null;
-        for (Avion a : aviones) {
-            if (a.getNombre().equals(nombreAvion)) {
-                avion = a;
-                break;
-            }
-        }
-        if (avion == null) {
+        AgendaAvion agenda = agendasAviones.get(nombreAvion);
+        if (agenda == null) {
             throw new Exception("Avión no encontrado");
         }
         Ruta ruta = rutas.get(codigoRuta);
         if (ruta == null) {
             throw new Exception("Ruta no encontrada");
         }
-        for (Vuelo vuelo : vuelos) {
-            if (vuelo.getFecha().equals(fecha) && vuelo.getAvion().equals(avion)) {
-                throw new Exception("El avión ya está ocupado en esa fecha");
+        LocalDate fechaVuelo = interpretarFecha(fecha);
+        if (fechaVuelo == null) {
+            throw new Exception("La fecha " + fecha + " no es válida");
+        }
+        if (existeVuelo(codigoRuta, fechaVuelo)) {
+            throw new Exception("Ya existe un vuelo para la ruta " + codigoRuta + " en la fecha " + fecha);
+        }
+        long inicio = AgendaAvion.calcularInicio(ruta, fechaVuelo);
+        long fin = inicio + ruta.getDuracion();
+
+        // Mientras se revisa y se ocupa la agenda, ningún otro hilo puede programar vuelos para el mismo avión
+        Vuelo nuevoVuelo = new Vuelo(ruta, fecha, agenda.getAvion());
+        Lock candado = agenda.getCandado();
+        candado.lock();
+        try {
+            if (!agenda.estaLibre(inicio, fin)) {
+                throw new Exception("El avión ya está ocupado en ese horario");
+            }
+            // Otro hilo pudo haber programado un vuelo para la misma ruta y fecha con otro avión
+            if (!reservarVuelo(nuevoVuelo, fechaVuelo)) {
+                throw new Exception("Ya existe un vuelo para la ruta " + codigoRuta + " en la fecha " + fecha);
             }
+            agenda.ocupar(inicio, fin);
+        } finally {
+            candado.unlock();
+        }
+
+        // El vuelo se registra en la bitácora antes de publicarlo. Si no se pudo registrar, se deshace la reserva y el vuelo nunca fue visible
+        BitacoraAerolinea laBitacora = bitacora;
+        if (laBitacora != null) {
+            laBitacora.iniciarOperacion();
+            try {
+                laBitacora.registrarVuelosProgramados(Collections.singletonList(nuevoVuelo));
+            } catch (IOException e) {
+                laBitacora.terminarOperacion();
+                candado.lock();
+                try {
+                    agenda.liberar(inicio);
+                } finally {
+                    candado.unlock();
+                }
+                cancelarReserva(nuevoVuelo, fechaVuelo);
+                throw e;
+            }
+        }
+        try {
+            publicarVuelo(nuevoVuelo, fechaVuelo);
+        } finally {
+            if (laBitacora != null) {
+                laBitacora.terminarOperacion();
+            }
+        }
+        if (tablaConexiones != null) {
+            tablaConexiones.vuelosProgramados(Collections.singletonList(nuevoVuelo));
+        }
+    }
+
+    /**
+     * Programa un conjunto de vuelos como una sola operación: o se programan todos, o no se programa ninguno.
+     * 
+     * Primero se validan todas las solicitudes (avión, ruta, fecha y que no exista ya un vuelo para la misma ruta y fecha). Luego las solicitudes se ordenan por avión y por
+     * hora de salida, de forma que los cruces entre vuelos del mismo conjunto se detectan con un solo recorrido, y los cruces con vuelos ya programados se revisan en la
+     * agenda de cada avión.
+     * 
+     * @param programacion Las solicitudes de los vuelos que se quieren programar
+     * @throws ProgramacionInvalidaException Se lanza esta excepción si alguna de las solicitudes tiene problemas. La excepción trae el problema de cada solicitud y en ese caso
+     *         no se programa ningún vuelo.
+     * @throws IOException Se lanza esta excepción si hubo problemas registrando los vuelos en la bitácora. En ese caso no se programa ningún vuelo.
+     */
+    public void programarVuelos( Iterable<ProgramacionVuelo> programacion ) throws ProgramacionInvalidaException, IOException
+    {
+        Map<Integer, String> errores = new TreeMap<Integer, String>( );
+        List<SolicitudValidada> solicitudes = new ArrayList<SolicitudValidada>( );
+        Map<String, LocalDate> fechas = new HashMap<String, LocalDate>( );
+        Map<String, Set<LocalDate>> vuelosNuevos = new HashMap<String, Set<LocalDate>>( );
+
+        // Validar cada solicitud por separado. Las fechas se interpretan una sola vez aunque se repitan en muchas solicitudes
+        int posicion = 0;
+        for( ProgramacionVuelo solicitud : programacion )
+        {
+            String error = null;
+            AgendaAvion agenda = agendasAviones.get( solicitud.getNombreAvion( ) );
+            Ruta ruta = rutas.get( solicitud.getCodigoRuta( ) );
+            LocalDate fechaVuelo = fechas.computeIfAbsent( solicitud.getFecha( ), Aerolinea::interpretarFecha );
+            if( agenda == null )
+                error = "Avión no encontrado";
+            else if( ruta == null )
+                error = "Ruta no encontrada";
+            else if( fechaVuelo == null )
+                error = "La fecha " + solicitud.getFecha( ) + " no es válida";
+            else if( existeVuelo( ruta.getCodigoRuta( ), fechaVuelo ) || !vuelosNuevos.computeIfAbsent( ruta.getCodigoRuta( ), c -> new HashSet<LocalDate>( ) ).add( fechaVuelo ) )
+                error = "Ya existe un vuelo para la ruta " + ruta.getCodigoRuta( ) + " en la fecha " + solicitud.getFecha( );
+
+            if( error == null )
+            {
+                // Los horarios de la ruta se interpretan al calcular el inicio y el fin del vuelo
+                try
+                {
+                    solicitudes.add( new SolicitudValidada( posicion, solicitud.getFecha( ), fechaVuelo, ruta, agenda ) );
+                }
+                catch( NumberFormatException e )
+                {
+                    vuelosNuevos.get( ruta.getCodigoRuta( ) ).remove( fechaVuelo );
+                    error = "La ruta " + ruta.getCodigoRuta( ) + " tiene un horario que no es válido";
+                }
+            }
+            if( error != null )
+                errores.put( posicion, error );
+            posicion++ ;
+        }
+
+        // Ordenar por avión y hora de salida. Así, los cruces entre solicitudes del mismo avión y con los vuelos que el avión ya tenía programados se detectan recorriendo
+        // una sola vez las solicitudes y la parte relevante de la agenda de cada avión
+        solicitudes.sort( Comparator.comparing( ( SolicitudValidada s ) -> s.agenda.getAvion( ).getNombre( ) ).thenComparingLong( s -> s.inicio ) );
+
+        // Tomar los candados de las agendas involucradas, siempre en orden de nombre del avión para que dos programaciones simultáneas no se bloqueen entre sí
+        List<Lock> candados = new ArrayList<Lock>( );
+        for( SolicitudValidada solicitud : solicitudes )
+        {
+            Lock candado = solicitud.agenda.getCandado( );
+            if( candados.isEmpty( ) || candados.get( candados.size( ) - 1 ) != candado )
+            {
+                candado.lock( );
+                candados.add( candado );
+            }
+        }
+
+        List<Vuelo> nuevosVuelos = new ArrayList<Vuelo>( solicitudes.size( ) );
+        List<SolicitudValidada> reservadas = new ArrayList<SolicitudValidada>( solicitudes.size( ) );
+        try
+        {
+            SolicitudValidada anterior = null;
+            Iterator<Map.Entry<Long, Long>> ocupados = null;
+            Map.Entry<Long, Long> ocupado = null;
+            for( SolicitudValidada actual : solicitudes )
+            {
+                if( anterior == null || anterior.agenda != actual.agenda )
+                {
+                    anterior = null;
+                    ocupados = actual.agenda.getIntervalosDesde( actual.inicio );
+                    ocupado = ocupados.hasNext( ) ? ocupados.next( ) : null;
+                }
+                while( ocupado != null && ocupado.getValue( ) <= actual.inicio )
+                    ocupado = ocupados.hasNext( ) ? ocupados.next( ) : null;
+
+                if( anterior != null && anterior.fin > actual.inicio )
+                    errores.put( actual.posicion, "El avión ya está ocupado en ese horario por el vuelo de la posición " + anterior.posicion );
+                else if( ocupado != null && ocupado.getKey( ) < actual.fin )
+                    errores.put( actual.posicion, "El avión ya está ocupado en ese horario" );
+
+                if( anterior == null || actual.fin > anterior.fin )
+                    anterior = actual;
+            }
+
+            if( !errores.isEmpty( ) )
+                throw new ProgramacionInvalidaException( errores );
+
+            // Reservar las rutas y fechas. Si otro hilo programó entretanto un vuelo para alguna de ellas, se deshacen las reservas y no se programa nada
+            for( SolicitudValidada solicitud : solicitudes )
+            {
+                Vuelo nuevoVuelo = new Vuelo( solicitud.ruta, solicitud.fecha, solicitud.agenda.getAvion( ) );
+                if( reservarVuelo( nuevoVuelo, solicitud.fechaVuelo ) )
+                {
+                    nuevosVuelos.add( nuevoVuelo );
+                    reservadas.add( solicitud );
+                }
+                else
+                    errores.put( solicitud.posicion, "Ya existe un vuelo para la ruta " + solicitud.ruta.getCodigoRuta( ) + " en la fecha " + solicitud.fecha );
+            }
+            if( !errores.isEmpty( ) )
+            {
+                for( int i = 0; i < reservadas.size( ); i++ )
+                    cancelarReserva( nuevosVuelos.get( i ), reservadas.get( i ).fechaVuelo );
+                throw new ProgramacionInvalidaException( errores );
+            }
+
+            for( SolicitudValidada solicitud : solicitudes )
+                solicitud.agenda.ocupar( solicitud.inicio, solicitud.fin );
+        }
+        finally
+        {
+            for( int i = candados.size( ) - 1; i >= 0; i-- )
+                candados.get( i ).unlock( );
+        }
+
+        // Los vuelos se registran en la bitácora antes de publicarlos. Si no se pudieron registrar, se deshacen las reservas y ningún vuelo fue visible
+        BitacoraAerolinea laBitacora = bitacora;
+        if( laBitacora != null )
+        {
+            laBitacora.iniciarOperacion( );
+            try
+            {
+                laBitacora.registrarVuelosProgramados( nuevosVuelos );
+            }
+            catch( IOException e )
+            {
+                laBitacora.terminarOperacion( );
+                for( Lock candado : candados )
+                    candado.lock( );
+                try
+                {
+                    for( SolicitudValidada solicitud : solicitudes )
+                        solicitud.agenda.liberar( solicitud.inicio );
+                }
+                finally
+                {
+                    for( int i = candados.size( ) - 1; i >= 0; i-- )
+                        candados.get( i ).unlock( );
+                }
+                for( int i = 0; i < solicitudes.size( ); i++ )
+                    cancelarReserva( nuevosVuelos.get( i ), solicitudes.get( i ).fechaVuelo );
+                throw e;
+            }
+        }
+        try
+        {
+            for( int i = 0; i < solicitudes.size( ); i++ )
+                publicarVuelo( nuevosVuelos.get( i ), solicitudes.get( i ).fechaVuelo );
+        }
+        finally
+        {
+            if( laBitacora != null )
+                laBitacora.terminarOperacion( );
+        }
+        if( tablaConexiones != null )
+            tablaConexiones.vuelosProgramados( nuevosVuelos );
+    }
+
+    /**
+     * Verifica si ya hay un vuelo programado para una ruta en una fecha
+     * @param codigoRuta El código de la ruta
+     * @param fechaVuelo La fecha del vuelo
+     * @return Retorna true si ya existe el vuelo
+     */
+    private boolean existeVuelo( String codigoRuta, LocalDate fechaVuelo )
+    {
+        NavigableMap<LocalDate, Vuelo> vuelosRuta = vuelosPorRuta.get( codigoRuta );
+        return vuelosRuta != null && vuelosRuta.containsKey( fechaVuelo );
+    }
+
+    /**
+     * Reserva la ruta y la fecha de un vuelo nuevo, siempre y cuando no haya ya un vuelo ni otra reserva para la misma ruta y fecha. Si dos hilos intentan reservar la misma
+     * ruta y fecha, sólo uno lo logra.
+     * 
+     * El vuelo reservado todavía no se puede encontrar con getVuelo. Después de reservarlo, se debe publicar con publicarVuelo o cancelar con cancelarReserva.
+     * @param nuevoVuelo El vuelo que se quiere reservar
+     * @param fechaVuelo La fecha del vuelo ya interpretada
+     * @return Retorna true si el vuelo quedó reservado, o false si ya había un vuelo o una reserva para la ruta y la fecha
+     */
+    private boolean reservarVuelo( Vuelo nuevoVuelo, LocalDate fechaVuelo )
+    {
+        // Primero se toma la reserva y después se revisa el índice: como un vuelo se publica antes de soltar su reserva, uno de los dos pasos ve al otro vuelo
+        String llave = llaveVuelo( nuevoVuelo, fechaVuelo );
+        if( !vuelosEnProgramacion.add( llave ) )
+            return false;
+        if( existeVuelo( nuevoVuelo.getRuta( ).getCodigoRuta( ), fechaVuelo ) )
+        {
+            vuelosEnProgramacion.remove( llave );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Agrega a la lista y al índice de vuelos un vuelo que estaba reservado, y suelta su reserva
+     * @param nuevoVuelo El vuelo
+     * @param fechaVuelo La fecha del vuelo ya interpretada
+     */
+    private void publicarVuelo( Vuelo nuevoVuelo, LocalDate fechaVuelo )
+    {
+        NavigableMap<LocalDate, Vuelo> vuelosRuta = vuelosPorRuta.computeIfAbsent( nuevoVuelo.getRuta( ).getCodigoRuta( ), c -> new ConcurrentSkipListMap<LocalDate, Vuelo>( ) );
+        vuelosRuta.put( fechaVuelo, nuevoVuelo );
+        vuelos.add( nuevoVuelo );
+        vuelosEnProgramacion.remove( llaveVuelo( nuevoVuelo, fechaVuelo ) );
+    }
+
+    /**
+     * Suelta la reserva de un vuelo que no se va a programar
+     * @param nuevoVuelo El vuelo
+     * @param fechaVuelo La fecha del vuelo ya interpretada
+     */
+    private void cancelarReserva( Vuelo nuevoVuelo, LocalDate fechaVuelo )
+    {
+        vuelosEnProgramacion.remove( llaveVuelo( nuevoVuelo, fechaVuelo ) );
+    }
+
+    private static String llaveVuelo( Vuelo vuelo, LocalDate fechaVuelo )
+    {
+        return vuelo.getRuta( ).getCodigoRuta( ) + " " + fechaVuelo;
+    }
+
+    /**
+     * Una solicitud de programación que ya pasó las validaciones individuales, junto con la información necesaria para revisar los cruces de horario
+     */
+    private static class SolicitudValidada
+    {
+        private int posicion;
+        private String fecha;
+        private LocalDate fechaVuelo;
+        private Ruta ruta;
+        private AgendaAvion agenda;
+        private long inicio;
+        private long fin;
+
+        private SolicitudValidada( int posicion, String fecha, LocalDate fechaVuelo, Ruta ruta, AgendaAvion agenda )
+        {
+            this.posicion = posicion;
+            this.fecha = fecha;
+            this.fechaVuelo = fechaVuelo;
+            this.ruta = ruta;
+            this.agenda = agenda;
+            this.inicio = AgendaAvion.calcularInicio( ruta, fechaVuelo );
+            this.fin = inicio + ruta.getDuracion( );
         }
-        Vuelo nuevoVuelo = new Vuelo(ruta, fecha, avion);
-        vuelos.add(nuevoVuelo);
     }
 
     /**
@@ -328,31 +808,131 @@ public class Aerolinea
             throw new Exception("Vuelo no encontrado");
         }
 
-        // Delegar la venta de tiquetes al vuelo
-        int tarifaTotal = vuelo.venderTiquetes(cliente, null, cantidad);
+        // Preparar la venta en el vuelo, con las tarifas de la temporada del vuelo, y registrarla en la bitácora antes de confirmarla.
+        // Si no se pudo registrar, la venta se deshace y ni el vuelo ni el cliente llegan a ver los tiquetes.
+        // La operación de la bitácora empieza antes de preparar la venta: quien realiza el vuelo espera a que terminen las ventas preparadas,
+        // así que una venta preparada nunca debe quedar esperando a que termine una compactación
+        BitacoraAerolinea laBitacora = bitacora;
+        if (laBitacora != null) {
+            laBitacora.iniciarOperacion();
+        }
+        try {
+            List<Tiquete> vendidos = vuelo.prepararTiquetes(cliente, MotorTarifas.getCalculadora(vuelo), cantidad);
+            if (laBitacora != null) {
+                try {
+                    laBitacora.registrarTiquetesVendidos(vendidos);
+                } catch (IOException | RuntimeException e) {
+                    vuelo.cancelarTiquetes(vendidos);
+                    throw e;
+                }
+            }
+            vuelo.confirmarTiquetes(cliente, vendidos);
 
-        return tarifaTotal;
+            int tarifaTotal = 0;
+            for (Tiquete tiquete : vendidos) {
+                tarifaTotal += tiquete.getTarifa();
+            }
+            return tarifaTotal;
+        } finally {
+            if (laBitacora != null) {
+                laBitacora.terminarOperacion();
+            }
+        }
     }	
 
     /**
      * Registra que un cierto vuelo fue realizado
      * @param fecha La fecha del vuelo
      * @param codigoRuta El código de la ruta que recorrió el vuelo
+     * @throws IOException Se lanza esta excepción si hay problemas registrando el vuelo en la bitácora
      */
-    public void registrarVueloRealizado(String fecha, String codigoRuta) {
+    public void registrarVueloRealizado(String fecha, String codigoRuta) throws IOException {
         // Buscar el vuelo por su código de ruta y fecha
         Vuelo vuelo = getVuelo(codigoRuta, fecha);
         
         if (vuelo != null) {
-            // Marcar todos los tiquetes de ese vuelo como usados
-            for (Tiquete tiquete : vuelo.getTiquetes()) {
-                tiquete.marcarComoUsado();
-            }
+            registrarVuelosRealizados(Collections.singletonList(vuelo));
         } else {
             System.out.println("Vuelo no encontrado para la ruta: " + codigoRuta + " en la fecha: " + fecha);
         }
     }
 
+    /**
+     * Registra que se realizaron todos los vuelos programados para una fecha, por ejemplo al terminar el día
+     * @param fecha La fecha de los vuelos
+     * @return La cantidad de vuelos que quedaron realizados. No incluye los que ya estaban registrados como realizados.
+     * @throws IOException Se lanza esta excepción si hay problemas registrando los vuelos en la bitácora
+     */
+    public int registrarVuelosRealizados( String fecha ) throws IOException
+    {
+        LocalDate fechaVuelos = interpretarFecha( fecha );
+        if( fechaVuelos == null )
+            return 0;
+
+        List<Vuelo> delDia = new ArrayList<Vuelo>( );
+        for( NavigableMap<LocalDate, Vuelo> vuelosRuta : vuelosPorRuta.values( ) )
+        {
+            Vuelo vuelo = vuelosRuta.get( fechaVuelos );
+            if( vuelo != null )
+                delDia.add( vuelo );
+        }
+        return registrarVuelosRealizados( delDia );
+    }
+
+    /**
+     * Registra que se realizaron varios vuelos. Desde ese momento todos los tiquetes de esos vuelos cuentan como usados.
+     * 
+     * Cada vuelo se cierra con una sola marca y una actualización de los totales de cada uno de sus clientes, en lugar de marcar sus tiquetes uno por uno, y los vuelos se
+     * cierran en paralelo.
+     * @param realizados Los vuelos que se realizaron
+     * @return La cantidad de vuelos que quedaron realizados. No incluye los que ya estaban registrados como realizados.
+     * @throws IOException Se lanza esta excepción si hay problemas registrando los vuelos en la bitácora
+     */
+    public int registrarVuelosRealizados( Collection<Vuelo> realizados ) throws IOException
+    {
+        BitacoraAerolinea laBitacora = bitacora;
+        if( laBitacora != null )
+            laBitacora.iniciarOperacion( );
+        try
+        {
+            // Los vuelos se registran en la bitácora antes de cerrarlos, así que si no se pudieron registrar, ninguno queda cerrado
+            List<Vuelo> pendientes = new ArrayList<Vuelo>( );
+            for( Vuelo vuelo : realizados )
+            {
+                if( !vuelo.isRealizado( ) )
+                    pendientes.add( vuelo );
+            }
+            if( laBitacora != null && !pendientes.isEmpty( ) )
+                laBitacora.registrarVuelosRealizados( pendientes );
+
+            return ( int )pendientes.parallelStream( ).filter( Vuelo::realizar ).count( );
+        }
+        finally
+        {
+            if( laBitacora != null )
+                laBitacora.terminarOperacion( );
+        }
+    }
+
+    /**
+     * Pasa al almacén de tiquetes los tiquetes de todos los vuelos realizados que no se habían archivado.
+     * 
+     * Un tiquete archivado ocupa una fila de unos 16 bytes en lugar de un objeto Tiquete y las referencias que tienen su vuelo y su cliente. Los tiquetes se siguen consultando
+     * igual, a través del vuelo o del cliente.
+     * @return La cantidad de vuelos archivados
+     * @throws IOException Se lanza esta excepción si el almacén usa un archivo y no se pudo escribir. Los vuelos que se alcanzaron a archivar quedan archivados.
+     */
+    public int archivarVuelosRealizados( ) throws IOException
+    {
+        int archivados = 0;
+        for( Vuelo vuelo : vuelos )
+        {
+            if( vuelo.isRealizado( ) && vuelo.archivarTiquetes( almacenTiquetes ) )
+                archivados++;
+        }
+        return archivados;
+    }
+
     /**
      * Calcula cuánto valen los tiquetes que ya compró un cliente dado y que todavía no ha utilizado
      * @param identificadorCliente El identificador del cliente
@@ -365,13 +945,8 @@ public class Aerolinea
             return "Cliente no encontrado";
         }
 
-        // Sumar los valores de los tiquetes sin usar
-        int saldoPendiente = 0;
-        for (Tiquete tiquete : cliente.getTiquetes()) {
-            if (!tiquete.isUsado()) {  // Verificar si el tiquete no ha sido usado
-                saldoPendiente += tiquete.getTarifa();
-            }
-        }
+        // El cliente lleva la suma de los valores de los tiquetes sin usar
+        long saldoPendiente = cliente.getSaldoPendiente();
 
         return "El saldo pendiente del cliente " + identificadorCliente + " es: " + saldoPendiente + " unidades.";
     }
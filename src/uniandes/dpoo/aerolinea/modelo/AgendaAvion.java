@@ -0,0 +1,123 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Esta clase mantiene los intervalos de tiempo en los que un avión está ocupado por los vuelos que tiene programados.
+ * 
+ * Los intervalos se guardan en un árbol ordenado por el minuto en el que empiezan. Como la aerolínea nunca le asigna a un avión dos vuelos que se crucen, los intervalos
+ * guardados no se superponen entre sí y para saber si un nuevo intervalo choca con alguno basta con revisar el intervalo inmediatamente anterior y el inmediatamente
+ * siguiente.
+ * 
+ * Los métodos que consultan o modifican los intervalos sólo se deben llamar teniendo el candado de la agenda. Así, dos hilos que programan vuelos para el mismo avión no pueden
+ * aprobar a la vez dos vuelos que se crucen, mientras que los vuelos de aviones distintos se pueden programar en paralelo.
+ */
+class AgendaAvion
+{
+    /**
+     * El avión al que corresponde la agenda
+     */
+    private Avion avion;
+
+    /**
+     * Los intervalos ocupados del avión.
+     * 
+     * Las llaves son el minuto de inicio de cada intervalo y los valores son el minuto en el que termina (sin incluirlo). Los minutos se cuentan desde el 1 de enero de 1970.
+     */
+    private NavigableMap<Long, Long> intervalos;
+
+    /**
+     * El candado que protege los intervalos de la agenda
+     */
+    private final Lock candado;
+
+    /**
+     * Construye una agenda vacía para un avión
+     * @param avion El avión al que corresponde la agenda
+     */
+    AgendaAvion( Avion avion )
+    {
+        this.avion = avion;
+        this.intervalos = new TreeMap<Long, Long>( );
+        this.candado = new ReentrantLock( );
+    }
+
+    public Avion getAvion( )
+    {
+        return avion;
+    }
+
+    public Lock getCandado( )
+    {
+        return candado;
+    }
+
+    /**
+     * Calcula el minuto en el que sale un vuelo de una ruta en una fecha dada
+     * @param ruta La ruta del vuelo
+     * @param fecha La fecha del vuelo
+     * @return El minuto de salida, contado desde el 1 de enero de 1970
+     */
+    static long calcularInicio( Ruta ruta, LocalDate fecha )
+    {
+        String horaSalida = ruta.getHoraSalida( );
+        return fecha.toEpochDay( ) * 24 * 60 + Ruta.getHoras( horaSalida ) * 60 + Ruta.getMinutos( horaSalida );
+    }
+
+    /**
+     * Verifica si el avión está libre durante todo un intervalo
+     * @param inicio El minuto en el que empieza el intervalo
+     * @param fin El minuto en el que termina el intervalo (sin incluirlo)
+     * @return Retorna true si el intervalo no se cruza con ninguno de los intervalos ocupados del avión
+     */
+    boolean estaLibre( long inicio, long fin )
+    {
+        Map.Entry<Long, Long> anterior = intervalos.floorEntry( inicio );
+        if( anterior != null && anterior.getValue( ) > inicio )
+            return false;
+
+        Long siguiente = intervalos.higherKey( inicio );
+        return siguiente == null || siguiente >= fin;
+    }
+
+    /**
+     * Retorna, en orden, los intervalos ocupados que terminan después de un minuto dado. Sirve para revisar muchos intervalos nuevos ordenados con un solo recorrido de la
+     * agenda.
+     * @param minuto El minuto a partir del cual interesan los intervalos
+     * @return Un iterador sobre los intervalos, donde la llave de cada entrada es el inicio y el valor es el fin
+     */
+    Iterator<Map.Entry<Long, Long>> getIntervalosDesde( long minuto )
+    {
+        if( intervalos.isEmpty( ) )
+            return Collections.emptyIterator( );
+
+        Long anterior = intervalos.floorKey( minuto );
+        return intervalos.tailMap( anterior != null ? anterior : minuto, true ).entrySet( ).iterator( );
+    }
+
+    /**
+     * Registra que el avión queda ocupado durante un intervalo. Antes de llamar este método se debe verificar que el intervalo esté libre.
+     * @param inicio El minuto en el que empieza el intervalo
+     * @param fin El minuto en el que termina el intervalo (sin incluirlo)
+     */
+    void ocupar( long inicio, long fin )
+    {
+        intervalos.put( inicio, fin );
+    }
+
+    /**
+     * Deshace la ocupación de un intervalo, por ejemplo cuando no se pudo terminar de programar el vuelo que lo ocupaba
+     * @param inicio El minuto en el que empieza el intervalo
+     */
+    void liberar( long inicio )
+    {
+        intervalos.remove( inicio );
+    }
+}
@@ -0,0 +1,257 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Esta clase es un índice espacial sobre un conjunto de aeropuertos, para encontrar los aeropuertos que están a menos de cierta distancia de un punto o los más cercanos a él
+ * sin revisarlos todos.
+ *
+ * El índice es un árbol k-d sobre la latitud y la longitud: cada nodo parte los aeropuertos de su rama por la mediana de una de las dos coordenadas, alternándolas en cada nivel.
+ * El árbol no se guarda con objetos sino en un arreglo: el nodo de un rango de posiciones [inicio, fin) es el aeropuerto de la mitad del rango, y sus dos ramas son las mitades a
+ * cada lado.
+ *
+ * Las distancias son las de Aeropuerto.calcularDistancia (la aproximación equirrectangular, que es la que se usa para las tarifas). Para descartar una rama se usa una cota
+ * inferior de esa misma fórmula sobre el rectángulo de coordenadas de la rama, y los aeropuertos que no se descartan se comparan con Aeropuerto.calcularDistancia. Así, las
+ * respuestas son exactamente las mismas que se obtendrían revisando todos los aeropuertos.
+ */
+public class IndiceEspacialAeropuertos
+{
+    /**
+     * El radio de la Tierra en kilómetros, el mismo que usa Aeropuerto
+     */
+    private static final double RADIO_TERRESTRE = 6371.0;
+
+    /**
+     * Los aeropuertos, en el orden del árbol
+     */
+    private final Aeropuerto[] aeropuertos;
+
+    /**
+     * La latitud de cada aeropuerto, en radianes y en el orden del árbol
+     */
+    private final double[] latitudes;
+
+    /**
+     * La longitud de cada aeropuerto, en radianes y en el orden del árbol
+     */
+    private final double[] longitudes;
+
+    /**
+     * Construye el índice con los aeropuertos dados
+     * @param aeropuertos Los aeropuertos
+     */
+    public IndiceEspacialAeropuertos( Collection<Aeropuerto> aeropuertos )
+    {
+        this.aeropuertos = aeropuertos.toArray( new Aeropuerto[aeropuertos.size( )] );
+        construir( 0, this.aeropuertos.length, 0 );
+
+        this.latitudes = new double[this.aeropuertos.length];
+        this.longitudes = new double[this.aeropuertos.length];
+        for( int i = 0; i < this.aeropuertos.length; i++ )
+        {
+            latitudes[ i ] = Math.toRadians( this.aeropuertos[ i ].getLatitud( ) );
+            longitudes[ i ] = Math.toRadians( this.aeropuertos[ i ].getLongitud( ) );
+        }
+    }
+
+    /**
+     * Ordena un rango del arreglo de aeropuertos para que forme un árbol k-d
+     * @param inicio La primera posición del rango
+     * @param fin La posición siguiente a la última del rango
+     * @param nivel El nivel del árbol. En los niveles pares se parte por latitud y en los impares por longitud.
+     */
+    private void construir( int inicio, int fin, int nivel )
+    {
+        if( fin - inicio <= 1 )
+            return;
+
+        Comparator<Aeropuerto> comparador = nivel % 2 == 0 ? Comparator.comparingDouble( Aeropuerto::getLatitud ) : Comparator.comparingDouble( Aeropuerto::getLongitud );
+        Arrays.sort( aeropuertos, inicio, fin, comparador );
+        int mitad = ( inicio + fin ) >>> 1;
+        construir( inicio, mitad, nivel + 1 );
+        construir( mitad + 1, fin, nivel + 1 );
+    }
+
+    /**
+     * Retorna la cantidad de aeropuertos del índice
+     * @return La cantidad de aeropuertos
+     */
+    public int getCantidad( )
+    {
+        return aeropuertos.length;
+    }
+
+    /**
+     * Busca los aeropuertos que están a una distancia menor o igual a un radio de un aeropuerto
+     * @param centro El aeropuerto desde el que se mide la distancia. No tiene que estar en el índice, y si está no se incluye en la respuesta.
+     * @param radio La distancia máxima en kilómetros, medida como en Aeropuerto.calcularDistancia
+     * @return Los aeropuertos que están dentro del radio, ordenados del más cercano al más lejano
+     */
+    public List<Aeropuerto> buscarEnRadio( Aeropuerto centro, int radio )
+    {
+        Busqueda busqueda = new Busqueda( centro );
+        List<long[]> encontrados = new ArrayList<long[]>( );
+        buscarEnRadio( busqueda, radio, 0, aeropuertos.length, 0, -Math.PI / 2, Math.PI / 2, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, encontrados );
+
+        // Cada aeropuerto encontrado es un par (distancia, posición), y se ordenan por distancia
+        Collections.sort( encontrados, ( a, b ) -> a[ 0 ] != b[ 0 ] ? Long.compare( a[ 0 ], b[ 0 ] ) : Long.compare( a[ 1 ], b[ 1 ] ) );
+        List<Aeropuerto> respuesta = new ArrayList<Aeropuerto>( encontrados.size( ) );
+        for( long[] encontrado : encontrados )
+            respuesta.add( aeropuertos[ ( int )encontrado[ 1 ] ] );
+        return respuesta;
+    }
+
+    private void buscarEnRadio( Busqueda busqueda, int radio, int inicio, int fin, int nivel, double latitudMinima, double latitudMaxima, double longitudMinima,
+            double longitudMaxima, List<long[]> encontrados )
+    {
+        if( inicio >= fin || busqueda.calcularCota( latitudMinima, latitudMaxima, longitudMinima, longitudMaxima ) > radio + 0.5 )
+            return;
+
+        int mitad = ( inicio + fin ) >>> 1;
+        if( busqueda.esCandidato( aeropuertos[ mitad ] ) )
+        {
+            int distancia = Aeropuerto.calcularDistancia( busqueda.centro, aeropuertos[ mitad ] );
+            if( distancia <= radio )
+                encontrados.add( new long[]{ distancia, mitad } );
+        }
+
+        if( nivel % 2 == 0 )
+        {
+            buscarEnRadio( busqueda, radio, inicio, mitad, nivel + 1, latitudMinima, latitudes[ mitad ], longitudMinima, longitudMaxima, encontrados );
+            buscarEnRadio( busqueda, radio, mitad + 1, fin, nivel + 1, latitudes[ mitad ], latitudMaxima, longitudMinima, longitudMaxima, encontrados );
+        }
+        else
+        {
+            buscarEnRadio( busqueda, radio, inicio, mitad, nivel + 1, latitudMinima, latitudMaxima, longitudMinima, longitudes[ mitad ], encontrados );
+            buscarEnRadio( busqueda, radio, mitad + 1, fin, nivel + 1, latitudMinima, latitudMaxima, longitudes[ mitad ], longitudMaxima, encontrados );
+        }
+    }
+
+    /**
+     * Busca los aeropuertos más cercanos a un aeropuerto
+     * @param centro El aeropuerto desde el que se mide la distancia. No tiene que estar en el índice, y si está no se incluye en la respuesta.
+     * @param cantidad La cantidad de aeropuertos que se quieren encontrar
+     * @return Los aeropuertos más cercanos, ordenados del más cercano al más lejano. Si en el índice hay menos aeropuertos, se retornan todos.
+     */
+    public List<Aeropuerto> buscarMasCercanos( Aeropuerto centro, int cantidad )
+    {
+        List<Aeropuerto> respuesta = new ArrayList<Aeropuerto>( );
+        if( cantidad <= 0 )
+            return respuesta;
+
+        // Los candidatos son pares (distancia, posición). El montículo tiene arriba al más lejano, que es el que se reemplaza cuando aparece uno más cercano
+        PriorityQueue<long[]> candidatos = new PriorityQueue<long[]>( ( a, b ) -> a[ 0 ] != b[ 0 ] ? Long.compare( b[ 0 ], a[ 0 ] ) : Long.compare( b[ 1 ], a[ 1 ] ) );
+        buscarMasCercanos( new Busqueda( centro ), cantidad, 0, aeropuertos.length, 0, -Math.PI / 2, Math.PI / 2, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                candidatos );
+
+        Aeropuerto[] cercanos = new Aeropuerto[candidatos.size( )];
+        for( int i = cercanos.length - 1; i >= 0; i-- )
+            cercanos[ i ] = aeropuertos[ ( int )candidatos.poll( )[ 1 ] ];
+        Collections.addAll( respuesta, cercanos );
+        return respuesta;
+    }
+
+    /**
+     * Busca el aeropuerto más cercano a un aeropuerto, por ejemplo para encontrar un aeropuerto alterno
+     * @param centro El aeropuerto desde el que se mide la distancia. No tiene que estar en el índice, y si está no se tiene en cuenta.
+     * @return El aeropuerto más cercano, o null si no hay otros aeropuertos en el índice
+     */
+    public Aeropuerto buscarMasCercano( Aeropuerto centro )
+    {
+        List<Aeropuerto> cercanos = buscarMasCercanos( centro, 1 );
+        return cercanos.isEmpty( ) ? null : cercanos.get( 0 );
+    }
+
+    private void buscarMasCercanos( Busqueda busqueda, int cantidad, int inicio, int fin, int nivel, double latitudMinima, double latitudMaxima, double longitudMinima,
+            double longitudMaxima, PriorityQueue<long[]> candidatos )
+    {
+        if( inicio >= fin )
+            return;
+        // Si ya hay suficientes candidatos, la rama sólo sirve si alguno de sus aeropuertos puede quedar, después de redondear, a lo sumo a la distancia del más lejano
+        if( candidatos.size( ) == cantidad && busqueda.calcularCota( latitudMinima, latitudMaxima, longitudMinima, longitudMaxima ) > candidatos.peek( )[ 0 ] + 0.5 )
+            return;
+
+        int mitad = ( inicio + fin ) >>> 1;
+        if( busqueda.esCandidato( aeropuertos[ mitad ] ) )
+        {
+            long[] candidato = { Aeropuerto.calcularDistancia( busqueda.centro, aeropuertos[ mitad ] ), mitad };
+            if( candidatos.size( ) < cantidad )
+                candidatos.add( candidato );
+            else if( candidatos.comparator( ).compare( candidato, candidatos.peek( ) ) > 0 )
+            {
+                candidatos.poll( );
+                candidatos.add( candidato );
+            }
+        }
+
+        // Primero se revisa la rama del lado del centro, que es donde es más probable encontrar candidatos cercanos
+        boolean porLatitud = nivel % 2 == 0;
+        double corte = porLatitud ? latitudes[ mitad ] : longitudes[ mitad ];
+        boolean primeroIzquierda = ( porLatitud ? busqueda.latitud : busqueda.longitud ) < corte;
+        for( int rama = 0; rama < 2; rama++ )
+        {
+            if( ( rama == 0 ) == primeroIzquierda )
+            {
+                if( porLatitud )
+                    buscarMasCercanos( busqueda, cantidad, inicio, mitad, nivel + 1, latitudMinima, corte, longitudMinima, longitudMaxima, candidatos );
+                else
+                    buscarMasCercanos( busqueda, cantidad, inicio, mitad, nivel + 1, latitudMinima, latitudMaxima, longitudMinima, corte, candidatos );
+            }
+            else
+            {
+                if( porLatitud )
+                    buscarMasCercanos( busqueda, cantidad, mitad + 1, fin, nivel + 1, corte, latitudMaxima, longitudMinima, longitudMaxima, candidatos );
+                else
+                    buscarMasCercanos( busqueda, cantidad, mitad + 1, fin, nivel + 1, latitudMinima, latitudMaxima, corte, longitudMaxima, candidatos );
+            }
+        }
+    }
+
+    /**
+     * El punto desde el que se hace una búsqueda, con sus coordenadas ya convertidas a radianes
+     */
+    private static class Busqueda
+    {
+        private final Aeropuerto centro;
+
+        private final double latitud;
+
+        private final double longitud;
+
+        Busqueda( Aeropuerto centro )
+        {
+            this.centro = centro;
+            this.latitud = Math.toRadians( centro.getLatitud( ) );
+            this.longitud = Math.toRadians( centro.getLongitud( ) );
+        }
+
+        /**
+         * Indica si un aeropuerto del índice puede hacer parte de la respuesta: el centro mismo no se incluye
+         */
+        boolean esCandidato( Aeropuerto aeropuerto )
+        {
+            return !aeropuerto.getCodigo( ).equals( centro.getCodigo( ) );
+        }
+
+        /**
+         * Calcula una cota inferior de la distancia, sin redondear, entre el centro y cualquier punto de un rectángulo de coordenadas.
+         *
+         * En la fórmula de Aeropuerto.calcularDistancia la diferencia de longitud se multiplica por el coseno de la latitud media, así que se usa la menor diferencia de latitud,
+         * la menor diferencia de longitud y el menor coseno posible dentro del rectángulo.
+         */
+        double calcularCota( double latitudMinima, double latitudMaxima, double longitudMinima, double longitudMaxima )
+        {
+            double deltaY = latitud < latitudMinima ? latitudMinima - latitud : ( latitud > latitudMaxima ? latitud - latitudMaxima : 0 );
+            double deltaLongitud = longitud < longitudMinima ? longitudMinima - longitud : ( longitud > longitudMaxima ? longitud - longitudMaxima : 0 );
+            double coseno = Math.min( Math.cos( ( latitud + latitudMinima ) / 2 ), Math.cos( ( latitud + latitudMaxima ) / 2 ) );
+            double deltaX = deltaLongitud * Math.max( 0, coseno );
+            return Math.sqrt( deltaX * deltaX + deltaY * deltaY ) * RADIO_TERRESTRE;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Esta clase representa una forma de viajar entre dos aeropuertos tomando una o varias rutas seguidas.
+ *
+ * Las horas de salida y de llegada de cada tramo se cuentan en minutos desde la medianoche del día en el que se hizo la búsqueda, así que un tramo que sale al día siguiente
+ * tiene una hora de salida mayor o igual a 1440.
+ */
+public class Itinerario
+{
+    /**
+     * Las rutas que se toman, en orden
+     */
+    private final List<Ruta> rutas;
+
+    /**
+     * El minuto en el que sale cada tramo
+     */
+    private final int[] salidas;
+
+    /**
+     * El minuto en el que llega cada tramo
+     */
+    private final int[] llegadas;
+
+    /**
+     * La suma de las distancias de todos los tramos, en kilómetros
+     */
+    private final int distancia;
+
+    /**
+     * Construye un itinerario
+     * @param rutas Las rutas que se toman, en orden
+     * @param salidas El minuto en el que sale cada tramo
+     * @param llegadas El minuto en el que llega cada tramo
+     * @param distancia La suma de las distancias de los tramos
+     */
+    Itinerario( List<Ruta> rutas, int[] salidas, int[] llegadas, int distancia )
+    {
+        this.rutas = Collections.unmodifiableList( rutas );
+        this.salidas = salidas;
+        this.llegadas = llegadas;
+        this.distancia = distancia;
+    }
+
+    /**
+     * Retorna las rutas del itinerario, en el orden en el que se toman
+     * @return Una lista que no se puede modificar
+     */
+    public List<Ruta> getRutas( )
+    {
+        return rutas;
+    }
+
+    public int getCantidadTramos( )
+    {
+        return rutas.size( );
+    }
+
+    /**
+     * Retorna el minuto en el que sale un tramo del itinerario
+     * @param tramo La posición del tramo
+     * @return El minuto de salida, contado desde la medianoche del día de la búsqueda
+     */
+    public int getSalida( int tramo )
+    {
+        return salidas[ tramo ];
+    }
+
+    /**
+     * Retorna el minuto en el que llega un tramo del itinerario
+     * @param tramo La posición del tramo
+     * @return El minuto de llegada, contado desde la medianoche del día de la búsqueda
+     */
+    public int getLlegada( int tramo )
+    {
+        return llegadas[ tramo ];
+    }
+
+    /**
+     * Retorna el minuto en el que sale el primer tramo
+     * @return El minuto de salida, contado desde la medianoche del día de la búsqueda
+     */
+    public int getSalida( )
+    {
+        return salidas[ 0 ];
+    }
+
+    /**
+     * Retorna el minuto en el que llega el último tramo
+     * @return El minuto de llegada, contado desde la medianoche del día de la búsqueda
+     */
+    public int getLlegada( )
+    {
+        return llegadas[ llegadas.length - 1 ];
+    }
+
+    /**
+     * Retorna el tiempo total del viaje, desde que sale el primer tramo hasta que llega el último, incluyendo las esperas entre tramos
+     * @return La duración en minutos
+     */
+    public int getDuracion( )
+    {
+        return getLlegada( ) - getSalida( );
+    }
+
+    public int getDistancia( )
+    {
+        return distancia;
+    }
+
+    public Aeropuerto getOrigen( )
+    {
+        return rutas.get( 0 ).getOrigen( );
+    }
+
+    public Aeropuerto getDestino( )
+    {
+        return rutas.get( rutas.size( ) - 1 ).getDestino( );
+    }
+}
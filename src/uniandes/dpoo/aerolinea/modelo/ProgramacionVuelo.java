@@ -0,0 +1,46 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+/**
+ * Esta clase representa una solicitud para programar un vuelo: la fecha, la ruta que cubrirá y el avión que lo realizará.
+ * 
+ * Se usa para programar muchos vuelos a la vez a través de Aerolinea.programarVuelos.
+ */
+public class ProgramacionVuelo
+{
+    /**
+     * La fecha en la que se realizará el vuelo
+     */
+    private String fecha;
+
+    /**
+     * El código de la ruta que cubrirá el vuelo
+     */
+    private String codigoRuta;
+
+    /**
+     * El nombre del avión que realizará el vuelo
+     */
+    private String nombreAvion;
+
+    public ProgramacionVuelo( String fecha, String codigoRuta, String nombreAvion )
+    {
+        this.fecha = fecha;
+        this.codigoRuta = codigoRuta;
+        this.nombreAvion = nombreAvion;
+    }
+
+    public String getFecha( )
+    {
+        return fecha;
+    }
+
+    public String getCodigoRuta( )
+    {
+        return codigoRuta;
+    }
+
+    public String getNombreAvion( )
+    {
+        return nombreAvion;
+    }
+}
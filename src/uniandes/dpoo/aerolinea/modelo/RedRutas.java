@@ -0,0 +1,386 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Esta clase organiza las rutas de una aerolínea como un grafo, para encontrar itinerarios con conexiones entre dos aeropuertos.
+ *
+ * Para cada aeropuerto se guardan las rutas que salen de él (listas de adyacencia). El grafo se actualiza cada vez que la aerolínea agrega una ruta, así que nunca hay que
+ * reconstruirlo. Junto a cada ruta se guardan ya calculados su minuto de salida, su duración y su distancia, para que la búsqueda no tenga que interpretar las horas.
+ *
+ * Las rutas se operan todos los días, así que una ruta se puede tomar a su hora de salida del mismo día si todavía se alcanza, o si no a la del día siguiente. Las búsquedas usan
+ * el algoritmo de Dijkstra con una de tres prioridades: llegar lo más temprano posible, tomar la menor cantidad de tramos o recorrer la menor distancia. Con las dos últimas, entre
+ * itinerarios igual de buenos se prefiere el que llega más temprano.
+ */
+public class RedRutas
+{
+    /**
+     * Prioridad de búsqueda: llegar lo más temprano posible
+     */
+    public static final int MENOR_LLEGADA = 0;
+
+    /**
+     * Prioridad de búsqueda: tomar la menor cantidad de tramos
+     */
+    public static final int MENOS_TRAMOS = 1;
+
+    /**
+     * Prioridad de búsqueda: recorrer la menor distancia
+     */
+    public static final int MENOR_DISTANCIA = 2;
+
+    /**
+     * El tiempo mínimo de conexión por defecto, en minutos
+     */
+    public static final int TIEMPO_MINIMO_CONEXION = 45;
+
+    private static final int MINUTOS_DIA = 24 * 60;
+
+    /**
+     * Las rutas que salen de cada aeropuerto. Las llaves son los códigos de los aeropuertos.
+     */
+    private final Map<String, Queue<Conexion>> salidas;
+
+    /**
+     * La conexión que corresponde a cada ruta, según el código de la ruta
+     */
+    private final Map<String, Conexion> conexiones;
+
+    public RedRutas( )
+    {
+        salidas = new ConcurrentHashMap<String, Queue<Conexion>>( );
+        conexiones = new ConcurrentHashMap<String, Conexion>( );
+    }
+
+    /**
+     * Agrega una ruta al grafo. Si ya había una ruta con el mismo código, se reemplaza.
+     *
+     * El grafo guarda los datos que tiene la ruta en este momento: si después se cambian sus aeropuertos o sus horas, hay que volver a agregarla.
+     * @param ruta La ruta
+     */
+    public void agregarRuta( Ruta ruta )
+    {
+        Conexion nueva = new Conexion( ruta );
+        Conexion anterior = conexiones.put( ruta.getCodigoRuta( ), nueva );
+        if( anterior != null )
+        {
+            Queue<Conexion> delOrigen = salidas.get( anterior.origen );
+            if( delOrigen != null )
+                delOrigen.remove( anterior );
+        }
+        salidas.computeIfAbsent( nueva.origen, codigo -> new ConcurrentLinkedQueue<Conexion>( ) ).add( nueva );
+    }
+
+    /**
+     * Retorna las rutas que salen de un aeropuerto
+     * @param codigoAeropuerto El código del aeropuerto
+     * @return Las rutas que salen del aeropuerto
+     */
+    public Collection<Ruta> getRutasDesde( String codigoAeropuerto )
+    {
+        Queue<Conexion> delOrigen = salidas.get( codigoAeropuerto );
+        if( delOrigen == null )
+            return Collections.emptyList( );
+
+        List<Ruta> respuesta = new ArrayList<Ruta>( );
+        for( Conexion conexion : delOrigen )
+            respuesta.add( conexion.ruta );
+        return respuesta;
+    }
+
+    /**
+     * Busca un itinerario entre dos aeropuertos usando el tiempo mínimo de conexión por defecto
+     * @param origen El código del aeropuerto de origen
+     * @param destino El código del aeropuerto de destino
+     * @param horaMinima La hora a partir de la cual se puede salir, en el mismo formato de las horas de las rutas (por ejemplo '715')
+     * @param prioridad MENOR_LLEGADA, MENOS_TRAMOS o MENOR_DISTANCIA
+     * @return El mejor itinerario según la prioridad, o null si no hay forma de llegar
+     */
+    public Itinerario buscarItinerario( String origen, String destino, String horaMinima, int prioridad )
+    {
+        return buscarItinerario( origen, destino, horaMinima, prioridad, TIEMPO_MINIMO_CONEXION, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Busca un itinerario entre dos aeropuertos
+     * @param origen El código del aeropuerto de origen
+     * @param destino El código del aeropuerto de destino
+     * @param horaMinima La hora a partir de la cual se puede salir, en el mismo formato de las horas de las rutas (por ejemplo '715')
+     * @param prioridad MENOR_LLEGADA, MENOS_TRAMOS o MENOR_DISTANCIA
+     * @param tiempoMinimoConexion Los minutos que tienen que pasar entre la llegada de un tramo y la salida del siguiente
+     * @param maximoTramos La mayor cantidad de tramos que puede tener el itinerario
+     * @return El mejor itinerario según la prioridad, o null si no hay forma de llegar
+     * @throws IllegalArgumentException Se lanza esta excepción si la prioridad no es una de las conocidas
+     */
+    public Itinerario buscarItinerario( String origen, String destino, String horaMinima, int prioridad, int tiempoMinimoConexion, int maximoTramos )
+    {
+        if( origen.equals( destino ) )
+            return null;
+
+        Map<String, Itinerario> encontrados = new HashMap<String, Itinerario>( );
+        buscar( origen, destino, horaMinima, prioridad, tiempoMinimoConexion, maximoTramos, encontrados );
+        return encontrados.get( destino );
+    }
+
+    /**
+     * Busca el mejor itinerario desde un aeropuerto hasta cada uno de los aeropuertos a los que se puede llegar. Cuesta lo mismo que buscar un solo itinerario hasta el
+     * aeropuerto más lejano.
+     * @param origen El código del aeropuerto de origen
+     * @param horaMinima La hora a partir de la cual se puede salir, en el mismo formato de las horas de las rutas (por ejemplo '715')
+     * @param prioridad MENOR_LLEGADA, MENOS_TRAMOS o MENOR_DISTANCIA
+     * @param tiempoMinimoConexion Los minutos que tienen que pasar entre la llegada de un tramo y la salida del siguiente
+     * @param maximoTramos La mayor cantidad de tramos que puede tener cada itinerario
+     * @return Un mapa con el mejor itinerario hasta cada aeropuerto alcanzable, según su código. El origen no se incluye.
+     * @throws IllegalArgumentException Se lanza esta excepción si la prioridad no es una de las conocidas
+     */
+    public Map<String, Itinerario> buscarItinerariosDesde( String origen, String horaMinima, int prioridad, int tiempoMinimoConexion, int maximoTramos )
+    {
+        Map<String, Itinerario> encontrados = new HashMap<String, Itinerario>( );
+        buscar( origen, null, horaMinima, prioridad, tiempoMinimoConexion, maximoTramos, encontrados );
+        return encontrados;
+    }
+
+    /**
+     * Busca con el algoritmo de Dijkstra los mejores itinerarios desde un aeropuerto
+     * @param origen El código del aeropuerto de origen
+     * @param destino El código del aeropuerto en el que se detiene la búsqueda, o null para buscar hasta todos los aeropuertos
+     * @param horaMinima La hora a partir de la cual se puede salir
+     * @param prioridad MENOR_LLEGADA, MENOS_TRAMOS o MENOR_DISTANCIA
+     * @param tiempoMinimoConexion Los minutos que tienen que pasar entre la llegada de un tramo y la salida del siguiente
+     * @param maximoTramos La mayor cantidad de tramos que puede tener cada itinerario
+     * @param encontrados El mapa donde se agrega el mejor itinerario hasta cada aeropuerto, a medida que se encuentra
+     */
+    private void buscar( String origen, String destino, String horaMinima, int prioridad, int tiempoMinimoConexion, int maximoTramos, Map<String, Itinerario> encontrados )
+    {
+        if( prioridad != MENOR_LLEGADA && prioridad != MENOS_TRAMOS && prioridad != MENOR_DISTANCIA )
+            throw new IllegalArgumentException( "La prioridad " + prioridad + " no es válida" );
+        if( maximoTramos <= 0 )
+            return;
+
+        int inicio = Ruta.getHoras( horaMinima ) * 60 + Ruta.getMinutos( horaMinima );
+
+        // Un itinerario óptimo nunca pasa dos veces por el mismo aeropuerto, así que sólo hay que limitar los tramos si el límite es menor que la cantidad de aeropuertos.
+        // En ese caso, la mejor forma de llegar a un aeropuerto puede usar demasiados tramos para continuar, así que se guarda la mejor etiqueta de cada aeropuerto para
+        // cada cantidad de tramos. Si no hay límite, basta con una etiqueta por aeropuerto
+        boolean limitado = maximoTramos < salidas.size( );
+        int niveles = limitado ? maximoTramos + 1 : 1;
+
+        // La mejor etiqueta encontrada hasta ahora para cada aeropuerto. Las etiquetas que quedan en la cola y ya no son las mejores de su aeropuerto se ignoran al sacarlas
+        Map<String, Etiqueta[]> mejores = new HashMap<String, Etiqueta[]>( );
+        PriorityQueue<Etiqueta> pendientes = new PriorityQueue<Etiqueta>( );
+        Etiqueta partida = new Etiqueta( origen, null, null, 0, inicio, 0, 0, prioridad );
+        mejores.computeIfAbsent( origen, codigo -> new Etiqueta[niveles] )[ 0 ] = partida;
+        pendientes.add( partida );
+
+        while( !pendientes.isEmpty( ) )
+        {
+            Etiqueta actual = pendientes.poll( );
+            if( mejores.get( actual.aeropuerto )[ limitado ? actual.tramos : 0 ] != actual )
+                continue;
+            // La primera etiqueta que sale de la cola para un aeropuerto es la mejor forma de llegar a él
+            if( actual.anterior != null && !encontrados.containsKey( actual.aeropuerto ) )
+            {
+                encontrados.put( actual.aeropuerto, construirItinerario( actual ) );
+                if( actual.aeropuerto.equals( destino ) )
+                    return;
+            }
+            if( actual.tramos >= maximoTramos )
+                continue;
+
+            Queue<Conexion> delAeropuerto = salidas.get( actual.aeropuerto );
+            if( delAeropuerto == null )
+                continue;
+
+            int listo = actual.anterior == null ? actual.llegada : actual.llegada + tiempoMinimoConexion;
+            for( Conexion conexion : delAeropuerto )
+            {
+                if( conexion.destino.equals( origen ) )
+                    continue;
+                int salida = conexion.calcularSiguienteSalida( listo );
+                Etiqueta siguiente = new Etiqueta( conexion.destino, actual, conexion, salida, salida + conexion.duracion, actual.tramos + 1,
+                        actual.distancia + conexion.distancia, prioridad );
+                Etiqueta[] delDestino = mejores.computeIfAbsent( conexion.destino, codigo -> new Etiqueta[niveles] );
+                if( esMejor( siguiente, delDestino, limitado ) )
+                {
+                    delDestino[ limitado ? siguiente.tramos : 0 ] = siguiente;
+                    pendientes.add( siguiente );
+                }
+            }
+        }
+    }
+
+    /**
+     * Indica si vale la pena seguir una etiqueta nueva de un aeropuerto. Cuando los tramos están limitados, una etiqueta no sirve si ya hay otra igual o mejor que usa la
+     * misma cantidad de tramos o menos.
+     * @param nueva La etiqueta nueva
+     * @param conocidas Las mejores etiquetas que se conocen del aeropuerto
+     * @param limitado Indica si las etiquetas se guardan por cantidad de tramos
+     * @return Retorna true si la etiqueta nueva es mejor que las conocidas
+     */
+    private static boolean esMejor( Etiqueta nueva, Etiqueta[] conocidas, boolean limitado )
+    {
+        int hasta = limitado ? nueva.tramos : 0;
+        for( int i = 0; i <= hasta; i++ )
+        {
+            if( conocidas[ i ] != null && conocidas[ i ].compareTo( nueva ) <= 0 )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Arma el itinerario que resulta de tomar unas rutas en orden, cada una en su primera salida posible
+     * @param tramos Las rutas, en orden
+     * @param inicio El minuto a partir del cual se puede salir
+     * @param tiempoMinimoConexion Los minutos que tienen que pasar entre la llegada de un tramo y la salida del siguiente
+     * @return El itinerario
+     */
+    static Itinerario crearItinerario( Ruta[] tramos, int inicio, int tiempoMinimoConexion )
+    {
+        int[] salidasTramos = new int[tramos.length];
+        int[] llegadasTramos = new int[tramos.length];
+        int distancia = 0;
+        int listo = inicio;
+        for( int i = 0; i < tramos.length; i++ )
+        {
+            Conexion conexion = new Conexion( tramos[ i ] );
+            salidasTramos[ i ] = conexion.calcularSiguienteSalida( listo );
+            llegadasTramos[ i ] = salidasTramos[ i ] + conexion.duracion;
+            distancia += conexion.distancia;
+            listo = llegadasTramos[ i ] + tiempoMinimoConexion;
+        }
+        List<Ruta> lista = new ArrayList<Ruta>( tramos.length );
+        Collections.addAll( lista, tramos );
+        return new Itinerario( lista, salidasTramos, llegadasTramos, distancia );
+    }
+
+    /**
+     * Reconstruye el itinerario que lleva hasta una etiqueta
+     * @param ultima La etiqueta del aeropuerto de destino
+     * @return El itinerario
+     */
+    private static Itinerario construirItinerario( Etiqueta ultima )
+    {
+        int cantidad = ultima.tramos;
+        Ruta[] rutas = new Ruta[cantidad];
+        int[] salidasTramos = new int[cantidad];
+        int[] llegadasTramos = new int[cantidad];
+        int i = cantidad - 1;
+        for( Etiqueta etiqueta = ultima; etiqueta.anterior != null; etiqueta = etiqueta.anterior )
+        {
+            rutas[ i ] = etiqueta.conexion.ruta;
+            salidasTramos[ i ] = etiqueta.salida;
+            llegadasTramos[ i ] = etiqueta.llegada;
+            i--;
+        }
+        List<Ruta> lista = new ArrayList<Ruta>( cantidad );
+        Collections.addAll( lista, rutas );
+        return new Itinerario( lista, salidasTramos, llegadasTramos, ultima.distancia );
+    }
+
+    /**
+     * Una ruta del grafo, con sus datos ya calculados
+     */
+    private static class Conexion
+    {
+        private final Ruta ruta;
+
+        private final String origen;
+
+        private final String destino;
+
+        /**
+         * El minuto del día en el que sale la ruta
+         */
+        private final int salida;
+
+        private final int duracion;
+
+        private final int distancia;
+
+        Conexion( Ruta ruta )
+        {
+            this.ruta = ruta;
+            this.origen = ruta.getOrigen( ).getCodigo( );
+            this.destino = ruta.getDestino( ).getCodigo( );
+            this.salida = Ruta.getHoras( ruta.getHoraSalida( ) ) * 60 + Ruta.getMinutos( ruta.getHoraSalida( ) );
+            this.duracion = ruta.getDuracion( );
+            this.distancia = ruta.getDistancia( );
+        }
+
+        /**
+         * Calcula la primera salida de la ruta que se puede tomar estando listo en un minuto dado
+         * @param listo El minuto a partir del cual se puede salir
+         * @return El minuto de la salida, el mismo día si se alcanza o el día siguiente si no
+         */
+        int calcularSiguienteSalida( int listo )
+        {
+            int salidaMismoDia = listo - Math.floorMod( listo, MINUTOS_DIA ) + salida;
+            return salidaMismoDia >= listo ? salidaMismoDia : salidaMismoDia + MINUTOS_DIA;
+        }
+    }
+
+    /**
+     * Una forma de llegar a un aeropuerto durante una búsqueda. Las etiquetas se comparan según la prioridad de la búsqueda, y en caso de empate por la hora de llegada.
+     */
+    private static class Etiqueta implements Comparable<Etiqueta>
+    {
+        private final String aeropuerto;
+
+        private final Etiqueta anterior;
+
+        /**
+         * La ruta con la que se llegó al aeropuerto, o null en la etiqueta de partida
+         */
+        private final Conexion conexion;
+
+        private final int salida;
+
+        private final int llegada;
+
+        private final int tramos;
+
+        private final int distancia;
+
+        /**
+         * El valor que se minimiza según la prioridad de la búsqueda
+         */
+        private final long costo;
+
+        Etiqueta( String aeropuerto, Etiqueta anterior, Conexion conexion, int salida, int llegada, int tramos, int distancia, int prioridad )
+        {
+            this.aeropuerto = aeropuerto;
+            this.anterior = anterior;
+            this.conexion = conexion;
+            this.salida = salida;
+            this.llegada = llegada;
+            this.tramos = tramos;
+            this.distancia = distancia;
+            if( prioridad == MENOS_TRAMOS )
+                this.costo = tramos;
+            else if( prioridad == MENOR_DISTANCIA )
+                this.costo = distancia;
+            else
+                this.costo = llegada;
+        }
+
+        @Override
+        public int compareTo( Etiqueta otra )
+        {
+            if( costo != otra.costo )
+                return Long.compare( costo, otra.costo );
+            if( llegada != otra.llegada )
+                return Integer.compare( llegada, otra.llegada );
+            return Integer.compare( tramos, otra.tramos );
+        }
+    }
+}
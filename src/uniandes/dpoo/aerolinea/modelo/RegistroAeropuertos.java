@@ -0,0 +1,219 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Esta clase reúne un conjunto de aeropuertos para calcular rápidamente las distancias entre todos ellos, por ejemplo para planear la red de rutas.
+ *
+ * Las coordenadas de los aeropuertos se guardan en arreglos de números, ya convertidas a radianes, en lugar de consultarlas en cada objeto. Además se guardan el seno y el coseno
+ * de la mitad de cada latitud: así el coseno de la latitud media de dos aeropuertos, que es la única función trigonométrica de la fórmula de Aeropuerto.calcularDistancia, se
+ * obtiene con dos multiplicaciones (cos((a+b)/2) = cos(a/2)cos(b/2) - sen(a/2)sen(b/2)). El ciclo que calcula una fila de distancias sólo hace sumas, multiplicaciones y una raíz
+ * cuadrada sobre arreglos consecutivos, y la máquina virtual lo puede vectorizar.
+ *
+ * Las distancias son las mismas de Aeropuerto.calcularDistancia salvo por el redondeo de las últimas cifras decimales, que sólo puede cambiar el resultado en un kilómetro cuando
+ * la distancia exacta queda prácticamente en la mitad entre dos enteros.
+ *
+ * Las coordenadas de un aeropuerto no cambian, así que el registro no se tiene que actualizar; si la aerolínea empieza a usar aeropuertos nuevos hay que construir otro.
+ */
+public class RegistroAeropuertos
+{
+    /**
+     * El radio de la Tierra en kilómetros, el mismo que usa Aeropuerto
+     */
+    private static final double RADIO_TERRESTRE = 6371.0;
+
+    /**
+     * Los aeropuertos del registro. La posición de cada aeropuerto es su índice en los demás arreglos.
+     */
+    private final Aeropuerto[] aeropuertos;
+
+    /**
+     * La posición de cada aeropuerto, según su código
+     */
+    private final Map<String, Integer> indices;
+
+    /**
+     * La latitud de cada aeropuerto, en radianes
+     */
+    private final double[] latitudes;
+
+    /**
+     * La longitud de cada aeropuerto, en radianes
+     */
+    private final double[] longitudes;
+
+    /**
+     * El coseno de la mitad de la latitud de cada aeropuerto
+     */
+    private final double[] cosenosMedios;
+
+    /**
+     * El seno de la mitad de la latitud de cada aeropuerto
+     */
+    private final double[] senosMedios;
+
+    /**
+     * Construye un registro con los aeropuertos dados. Si un aeropuerto aparece varias veces, sólo se tiene en cuenta una.
+     * @param aeropuertos Los aeropuertos
+     */
+    public RegistroAeropuertos( Collection<Aeropuerto> aeropuertos )
+    {
+        List<Aeropuerto> distintos = new ArrayList<Aeropuerto>( aeropuertos.size( ) );
+        this.indices = new HashMap<String, Integer>( );
+        for( Aeropuerto aeropuerto : aeropuertos )
+        {
+            if( indices.putIfAbsent( aeropuerto.getCodigo( ), distintos.size( ) ) == null )
+                distintos.add( aeropuerto );
+        }
+
+        int cantidad = distintos.size( );
+        this.aeropuertos = distintos.toArray( new Aeropuerto[cantidad] );
+        this.latitudes = new double[cantidad];
+        this.longitudes = new double[cantidad];
+        this.cosenosMedios = new double[cantidad];
+        this.senosMedios = new double[cantidad];
+        for( int i = 0; i < cantidad; i++ )
+        {
+            latitudes[ i ] = Math.toRadians( this.aeropuertos[ i ].getLatitud( ) );
+            longitudes[ i ] = Math.toRadians( this.aeropuertos[ i ].getLongitud( ) );
+            cosenosMedios[ i ] = Math.cos( latitudes[ i ] / 2 );
+            senosMedios[ i ] = Math.sin( latitudes[ i ] / 2 );
+        }
+    }
+
+    /**
+     * Retorna la cantidad de aeropuertos del registro
+     * @return La cantidad de aeropuertos
+     */
+    public int getCantidad( )
+    {
+        return aeropuertos.length;
+    }
+
+    /**
+     * Retorna el aeropuerto que está en una posición del registro
+     * @param indice La posición del aeropuerto
+     * @return El aeropuerto
+     */
+    public Aeropuerto getAeropuerto( int indice )
+    {
+        return aeropuertos[ indice ];
+    }
+
+    /**
+     * Retorna la posición de un aeropuerto en el registro
+     * @param codigo El código del aeropuerto
+     * @return La posición del aeropuerto, o -1 si el aeropuerto no está en el registro
+     */
+    public int getIndice( String codigo )
+    {
+        Integer indice = indices.get( codigo );
+        return indice == null ? -1 : indice;
+    }
+
+    /**
+     * Calcula la distancia entre dos aeropuertos del registro
+     * @param origen La posición del primer aeropuerto
+     * @param destino La posición del segundo aeropuerto
+     * @return La distancia en kilómetros
+     */
+    public int calcularDistancia( int origen, int destino )
+    {
+        double deltaX = ( longitudes[ destino ] - longitudes[ origen ] ) * ( cosenosMedios[ origen ] * cosenosMedios[ destino ] - senosMedios[ origen ] * senosMedios[ destino ] );
+        double deltaY = latitudes[ destino ] - latitudes[ origen ];
+        return redondear( Math.sqrt( deltaX * deltaX + deltaY * deltaY ) * RADIO_TERRESTRE );
+    }
+
+    /**
+     * Calcula las distancias entre todos los pares de aeropuertos del registro. Las filas de la matriz se calculan en paralelo.
+     *
+     * La matriz ocupa 4 * n * n bytes, donde n es la cantidad de aeropuertos.
+     * @return Un arreglo con la matriz de distancias por filas: la distancia del aeropuerto i al aeropuerto j está en la posición i * n + j
+     */
+    public int[] calcularMatriz( )
+    {
+        int cantidad = aeropuertos.length;
+        int[] matriz = new int[Math.multiplyExact( cantidad, cantidad )];
+        IntStream.range( 0, cantidad ).parallel( ).forEach( i -> calcularFila( i, matriz, i * cantidad ) );
+        return matriz;
+    }
+
+    /**
+     * Calcula las distancias desde un aeropuerto hasta todos los aeropuertos del registro
+     * @param origen La posición del aeropuerto
+     * @param fila El arreglo donde se dejan las distancias
+     * @param inicio La posición del arreglo donde queda la distancia al primer aeropuerto
+     */
+    private void calcularFila( int origen, int[] fila, int inicio )
+    {
+        double latitudOrigen = latitudes[ origen ];
+        double longitudOrigen = longitudes[ origen ];
+        double cosenoOrigen = cosenosMedios[ origen ];
+        double senoOrigen = senosMedios[ origen ];
+        for( int j = 0; j < aeropuertos.length; j++ )
+        {
+            double deltaX = ( longitudes[ j ] - longitudOrigen ) * ( cosenoOrigen * cosenosMedios[ j ] - senoOrigen * senosMedios[ j ] );
+            double deltaY = latitudes[ j ] - latitudOrigen;
+            fila[ inicio + j ] = redondear( Math.sqrt( deltaX * deltaX + deltaY * deltaY ) * RADIO_TERRESTRE );
+        }
+    }
+
+    /**
+     * Busca los aeropuertos más cercanos a un aeropuerto del registro
+     * @param aeropuerto El aeropuerto
+     * @param cantidad La cantidad de aeropuertos que se quieren encontrar
+     * @return Los aeropuertos más cercanos (sin incluir al aeropuerto dado), ordenados del más cercano al más lejano. Si hay menos aeropuertos en el registro, se retornan todos.
+     * @throws IllegalArgumentException Se lanza esta excepción si el aeropuerto no está en el registro
+     */
+    public List<Aeropuerto> buscarMasCercanos( Aeropuerto aeropuerto, int cantidad )
+    {
+        int origen = getIndice( aeropuerto.getCodigo( ) );
+        if( origen < 0 )
+            throw new IllegalArgumentException( "El aeropuerto " + aeropuerto.getCodigo( ) + " no está en el registro" );
+
+        int[] distancias = new int[aeropuertos.length];
+        calcularFila( origen, distancias, 0 );
+
+        // Cada candidato se representa con su distancia en los 32 bits altos y su posición en los bajos, para ordenarlos sin crear objetos por cada comparación.
+        // El montículo tiene el más lejano de los candidatos arriba, así que se reemplaza cuando aparece uno más cercano
+        int buscados = Math.max( 0, Math.min( cantidad, aeropuertos.length - 1 ) );
+        PriorityQueue<Long> candidatos = new PriorityQueue<Long>( Math.max( 1, buscados ), Collections.reverseOrder( ) );
+        for( int j = 0; j < distancias.length && buscados > 0; j++ )
+        {
+            if( j == origen )
+                continue;
+            long candidato = ( ( long )distancias[ j ] << 32 ) | j;
+            if( candidatos.size( ) < buscados )
+                candidatos.add( candidato );
+            else if( candidato < candidatos.peek( ) )
+            {
+                candidatos.poll( );
+                candidatos.add( candidato );
+            }
+        }
+
+        Aeropuerto[] cercanos = new Aeropuerto[candidatos.size( )];
+        for( int i = cercanos.length - 1; i >= 0; i-- )
+            cercanos[ i ] = aeropuertos[ ( int )( long )candidatos.poll( ) ];
+        List<Aeropuerto> respuesta = new ArrayList<Aeropuerto>( cercanos.length );
+        Collections.addAll( respuesta, cercanos );
+        return respuesta;
+    }
+
+    /**
+     * Redondea una distancia al kilómetro más cercano. Las distancias nunca son negativas, así que basta con sumar media unidad y truncar, lo cual se puede vectorizar.
+     * @param distancia La distancia
+     * @return La distancia redondeada
+     */
+    private static int redondear( double distancia )
+    {
+        return ( int )( distancia + 0.5 );
+    }
+}
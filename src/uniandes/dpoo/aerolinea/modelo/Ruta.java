@@ -12,6 +12,9 @@ public class Ruta
     private Aeropuerto destino;
     private String codigoRuta;
 
+    // Distancia en kilómetros entre el origen y el destino. Se calcula cuando cambia alguno de los dos aeropuertos, y no cada vez que se cotiza un tiquete
+    private int distancia;
+
     // Constructor
     public Ruta(String codigoRuta, Aeropuerto origen, Aeropuerto destino, String horaSalida, String horaLlegada) {
         this.setCodigoRuta(codigoRuta);
@@ -48,6 +51,32 @@ public class Ruta
         return horas;
     }
 
+    /**
+     * Retorna la distancia entre el aeropuerto de origen y el de destino de la ruta.
+     * 
+     * La distancia no se calcula en cada llamada sino que se recalcula cuando se cambia el origen o el destino.
+     * @return La distancia en kilómetros, o -1 si a la ruta le falta el origen o el destino
+     */
+    public int getDistancia( )
+    {
+        return distancia;
+    }
+
+    /**
+     * Calcula la duración de la ruta a partir de su hora de salida y su hora de llegada.
+     * 
+     * Si la hora de llegada no es posterior a la hora de salida, se asume que el vuelo llega al día siguiente.
+     * @return La duración de la ruta en minutos
+     */
+    public int getDuracion( )
+    {
+        int salida = getHoras( horaSalida ) * 60 + getMinutos( horaSalida );
+        int llegada = getHoras( horaLlegada ) * 60 + getMinutos( horaLlegada );
+        if( llegada <= salida )
+            llegada += 24 * 60;
+        return llegada - salida;
+    }
+
     public String getCodigoRuta() {
         return this.codigoRuta;  // Devuelve el valor de codigoRuta
     }
@@ -80,6 +109,7 @@ public class Ruta
 
 	public void setOrigen(Aeropuerto origen) {
 		this.origen = origen;
+		actualizarDistancia();
 	}
 
 
@@ -90,6 +120,16 @@ public class Ruta
 
 	public void setDestino(Aeropuerto destino) {
 		this.destino = destino;
+		actualizarDistancia();
+	}
+
+	// Recalcula la distancia de la ruta con los aeropuertos actuales
+	private void actualizarDistancia() {
+		if (origen == null || destino == null) {
+			distancia = -1;
+		} else {
+			distancia = Aeropuerto.calcularDistancia(origen, destino);
+		}
 	}
 
 
@@ -0,0 +1,567 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Esta clase tiene calculados de antemano los mejores itinerarios entre todos los pares de aeropuertos, para responder las consultas más frecuentes sin hacer una búsqueda.
+ *
+ * Sólo se tienen en cuenta las rutas que tienen al menos un vuelo programado. Para cada par de aeropuertos se guarda el mejor itinerario según cada una de las prioridades de
+ * RedRutas (llegar más temprano, menos tramos y menor distancia), buscando a partir de una hora de referencia. Cada itinerario se guarda en una celda de tamaño fijo con la
+ * cantidad de tramos y las posiciones de sus rutas, y todas las celdas están en un solo buffer, así que consultar un itinerario es calcular una posición y leer unos pocos
+ * enteros. El buffer puede ser un archivo mapeado en memoria (ver PersistenciaTablaConexiones).
+ *
+ * La tabla ocupa 12 * (maximoTramos + 1) * n * n bytes, donde n es la cantidad de aeropuertos.
+ *
+ * Cuando se programan vuelos de rutas que no estaban en la tabla, la tabla se actualiza en un hilo aparte. Una ruta nueva sólo puede mejorar los itinerarios que salen de
+ * aeropuertos desde los que se puede llegar al origen de la ruta, así que sólo se recalculan las filas de esos aeropuertos. Si la ruta usa un aeropuerto que no estaba en la
+ * tabla, la tabla se reconstruye completa. Mientras tanto, las consultas siguen respondiendo con los datos anteriores.
+ */
+public class TablaConexiones implements Closeable
+{
+    /**
+     * Las prioridades que tiene la tabla, en el orden en el que están sus celdas
+     */
+    private static final int[] PRIORIDADES = { RedRutas.MENOR_LLEGADA, RedRutas.MENOS_TRAMOS, RedRutas.MENOR_DISTANCIA };
+
+    /**
+     * La mayor cantidad de tramos de los itinerarios de la tabla
+     */
+    private final int maximoTramos;
+
+    /**
+     * Los minutos que tienen que pasar entre la llegada de un tramo y la salida del siguiente
+     */
+    private final int tiempoMinimoConexion;
+
+    /**
+     * La hora a partir de la cual se buscan los itinerarios, en el formato de las horas de las rutas
+     */
+    private final String horaReferencia;
+
+    /**
+     * La cantidad de enteros de cada celda: la cantidad de tramos y la posición de la ruta de cada tramo
+     */
+    private final int enterosCelda;
+
+    /**
+     * El candado que protege los datos que usan las consultas. Las consultas usan el candado de lectura, y las actualizaciones usan el de escritura sólo para publicar los datos
+     * que ya calcularon.
+     */
+    private final ReadWriteLock candado;
+
+    /**
+     * El hilo que actualiza la tabla cuando se programan vuelos
+     */
+    private final ExecutorService actualizador;
+
+    /**
+     * El primer error que tuvo el hilo de actualización, o null si no ha tenido errores. Se reporta en esperarActualizaciones.
+     */
+    private volatile RuntimeException falla;
+
+    /**
+     * La posición de cada aeropuerto en la tabla, según su código
+     */
+    private Map<String, Integer> indiceAeropuertos;
+
+    /**
+     * Las rutas de la tabla. Las celdas guardan las posiciones de las rutas en esta lista.
+     */
+    private List<Ruta> rutas;
+
+    /**
+     * La posición de cada ruta en la lista de rutas, según su código
+     */
+    private Map<String, Integer> indiceRutas;
+
+    /**
+     * El grafo con las rutas de la tabla. Sólo lo usan las actualizaciones.
+     */
+    private RedRutas red;
+
+    /**
+     * Los aeropuertos desde los que sale alguna ruta de la tabla hacia cada aeropuerto. Sólo lo usan las actualizaciones.
+     */
+    private Map<String, Set<String>> origenesHacia;
+
+    /**
+     * Las celdas de la tabla. La celda del itinerario del aeropuerto i al aeropuerto j con la prioridad p empieza en el entero ((i * n + j) * 3 + p) * enterosCelda.
+     */
+    private ByteBuffer celdas;
+
+    /**
+     * Construye una tabla vacía. Para llenarla se usa el método construir.
+     * @param maximoTramos La mayor cantidad de tramos de los itinerarios
+     * @param tiempoMinimoConexion Los minutos que tienen que pasar entre la llegada de un tramo y la salida del siguiente
+     * @param horaReferencia La hora a partir de la cual se buscan los itinerarios, en el formato de las horas de las rutas (por ejemplo '0')
+     */
+    public TablaConexiones( int maximoTramos, int tiempoMinimoConexion, String horaReferencia )
+    {
+        if( maximoTramos <= 0 )
+            throw new IllegalArgumentException( "La cantidad máxima de tramos debe ser positiva" );
+
+        this.maximoTramos = maximoTramos;
+        this.tiempoMinimoConexion = tiempoMinimoConexion;
+        this.horaReferencia = horaReferencia;
+        this.enterosCelda = maximoTramos + 1;
+        this.candado = new ReentrantReadWriteLock( );
+        this.actualizador = Executors.newSingleThreadExecutor( tarea -> {
+            Thread hilo = new Thread( tarea, "actualizador-conexiones" );
+            hilo.setDaemon( true );
+            return hilo;
+        } );
+        crearGrafo( Collections.<Ruta> emptyList( ) );
+        publicar( Collections.<String> emptyList( ), Collections.<Ruta> emptyList( ), ByteBuffer.allocate( 0 ) );
+    }
+
+    public int getMaximoTramos( )
+    {
+        return maximoTramos;
+    }
+
+    public int getTiempoMinimoConexion( )
+    {
+        return tiempoMinimoConexion;
+    }
+
+    public String getHoraReferencia( )
+    {
+        return horaReferencia;
+    }
+
+    /**
+     * Calcula toda la tabla con las rutas de la aerolínea que tienen vuelos programados. Las filas de la tabla se calculan en paralelo.
+     * @param aerolinea La aerolínea
+     */
+    public synchronized void construir( Aerolinea aerolinea )
+    {
+        Map<String, Ruta> operadas = new LinkedHashMap<String, Ruta>( );
+        for( Vuelo vuelo : aerolinea.getVuelos( ) )
+            operadas.putIfAbsent( vuelo.getRuta( ).getCodigoRuta( ), vuelo.getRuta( ) );
+        reconstruir( new ArrayList<Ruta>( operadas.values( ) ) );
+    }
+
+    /**
+     * Avisa a la tabla que se programaron vuelos. Si alguno es de una ruta que no estaba en la tabla, la tabla se actualiza en el hilo de actualización. Si la actualización
+     * falla, el error se reporta en esperarActualizaciones.
+     * @param vuelos Los vuelos programados
+     */
+    public void vuelosProgramados( Collection<Vuelo> vuelos )
+    {
+        List<Ruta> nuevas = new ArrayList<Ruta>( );
+        candado.readLock( ).lock( );
+        try
+        {
+            for( Vuelo vuelo : vuelos )
+            {
+                if( !indiceRutas.containsKey( vuelo.getRuta( ).getCodigoRuta( ) ) )
+                    nuevas.add( vuelo.getRuta( ) );
+            }
+        }
+        finally
+        {
+            candado.readLock( ).unlock( );
+        }
+
+        if( !nuevas.isEmpty( ) )
+            actualizador.submit( ( ) -> {
+                try
+                {
+                    agregarRutas( nuevas );
+                }
+                catch( RuntimeException e )
+                {
+                    if( falla == null )
+                        falla = e;
+                    throw e;
+                }
+            } );
+    }
+
+    /**
+     * Espera a que terminen las actualizaciones pendientes
+     * @throws InterruptedException Se lanza esta excepción si el hilo se interrumpe mientras espera
+     * @throws IllegalStateException Se lanza esta excepción si alguna actualización falló. En ese caso la tabla puede no tener todas las rutas programadas.
+     */
+    public void esperarActualizaciones( ) throws InterruptedException
+    {
+        try
+        {
+            actualizador.submit( ( ) -> {
+            } ).get( );
+        }
+        catch( ExecutionException e )
+        {
+            throw new IllegalStateException( e.getCause( ) );
+        }
+        if( falla != null )
+            throw new IllegalStateException( "No se pudo actualizar la tabla de conexiones", falla );
+    }
+
+    /**
+     * Agrega rutas a la tabla y recalcula los itinerarios que pueden cambiar
+     * @param nuevas Las rutas que se agregan. Las que ya estaban en la tabla se ignoran.
+     */
+    public synchronized void agregarRutas( Collection<Ruta> nuevas )
+    {
+        List<Ruta> agregadas = new ArrayList<Ruta>( );
+        boolean aeropuertoNuevo = false;
+        for( Ruta ruta : nuevas )
+        {
+            if( indiceRutas.containsKey( ruta.getCodigoRuta( ) ) || agregadas.contains( ruta ) )
+                continue;
+            agregadas.add( ruta );
+            aeropuertoNuevo |= !indiceAeropuertos.containsKey( ruta.getOrigen( ).getCodigo( ) ) || !indiceAeropuertos.containsKey( ruta.getDestino( ).getCodigo( ) );
+        }
+        if( agregadas.isEmpty( ) )
+            return;
+
+        if( aeropuertoNuevo )
+        {
+            List<Ruta> todas = new ArrayList<Ruta>( rutas );
+            todas.addAll( agregadas );
+            reconstruir( todas );
+            return;
+        }
+
+        // Publicar las rutas nuevas antes que las celdas que las usan
+        List<Ruta> todas = new ArrayList<Ruta>( rutas );
+        Map<String, Integer> nuevoIndiceRutas = new HashMap<String, Integer>( indiceRutas );
+        for( Ruta ruta : agregadas )
+        {
+            nuevoIndiceRutas.put( ruta.getCodigoRuta( ), todas.size( ) );
+            todas.add( ruta );
+            agregarAlGrafo( ruta );
+        }
+        candado.writeLock( ).lock( );
+        try
+        {
+            rutas = todas;
+            indiceRutas = nuevoIndiceRutas;
+        }
+        finally
+        {
+            candado.writeLock( ).unlock( );
+        }
+
+        // Buscar los aeropuertos desde los que se llega a los orígenes de las rutas nuevas, recorriendo el grafo al revés
+        Set<String> afectados = new HashSet<String>( );
+        Queue<String> pendientes = new ArrayDeque<String>( );
+        for( Ruta ruta : agregadas )
+        {
+            if( afectados.add( ruta.getOrigen( ).getCodigo( ) ) )
+                pendientes.add( ruta.getOrigen( ).getCodigo( ) );
+        }
+        while( !pendientes.isEmpty( ) )
+        {
+            for( String anterior : origenesHacia.getOrDefault( pendientes.poll( ), Collections.<String> emptySet( ) ) )
+            {
+                if( afectados.add( anterior ) )
+                    pendientes.add( anterior );
+            }
+        }
+
+        int cantidad = indiceAeropuertos.size( );
+        for( String codigo : afectados )
+        {
+            int origen = indiceAeropuertos.get( codigo );
+            int[] fila = calcularFila( codigo, cantidad, indiceAeropuertos, nuevoIndiceRutas );
+            candado.writeLock( ).lock( );
+            try
+            {
+                escribirFila( celdas, origen, fila );
+            }
+            finally
+            {
+                candado.writeLock( ).unlock( );
+            }
+        }
+    }
+
+    /**
+     * Busca en la tabla el mejor itinerario entre dos aeropuertos. Las horas del itinerario se cuentan a partir de la hora de referencia de la tabla.
+     * @param origen El código del aeropuerto de origen
+     * @param destino El código del aeropuerto de destino
+     * @param prioridad RedRutas.MENOR_LLEGADA, RedRutas.MENOS_TRAMOS o RedRutas.MENOR_DISTANCIA
+     * @return El itinerario, o null si en la tabla no hay forma de llegar
+     * @throws IllegalArgumentException Se lanza esta excepción si la prioridad no es una de las conocidas
+     */
+    public Itinerario buscarItinerario( String origen, String destino, int prioridad )
+    {
+        if( prioridad < 0 || prioridad >= PRIORIDADES.length )
+            throw new IllegalArgumentException( "La prioridad " + prioridad + " no es válida" );
+
+        Ruta[] tramos;
+        candado.readLock( ).lock( );
+        try
+        {
+            Integer i = indiceAeropuertos.get( origen );
+            Integer j = indiceAeropuertos.get( destino );
+            if( i == null || j == null )
+                return null;
+
+            int inicio = ( ( i * indiceAeropuertos.size( ) + j ) * PRIORIDADES.length + prioridad ) * enterosCelda * Integer.BYTES;
+            tramos = new Ruta[celdas.getInt( inicio )];
+            for( int t = 0; t < tramos.length; t++ )
+                tramos[ t ] = rutas.get( celdas.getInt( inicio + ( t + 1 ) * Integer.BYTES ) );
+        }
+        finally
+        {
+            candado.readLock( ).unlock( );
+        }
+
+        if( tramos.length == 0 )
+            return null;
+        int inicio = Ruta.getHoras( horaReferencia ) * 60 + Ruta.getMinutos( horaReferencia );
+        return RedRutas.crearItinerario( tramos, inicio, tiempoMinimoConexion );
+    }
+
+    /**
+     * Detiene el hilo de actualización. Las actualizaciones pendientes se descartan.
+     */
+    @Override
+    public void close( )
+    {
+        actualizador.shutdownNow( );
+    }
+
+    /**
+     * Escribe el contenido de la tabla: los parámetros, los códigos de los aeropuertos, los códigos de las rutas y las celdas
+     * @param out El flujo donde se escribe
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo
+     */
+    public void escribir( DataOutputStream out ) throws IOException
+    {
+        candado.readLock( ).lock( );
+        try
+        {
+            out.writeInt( maximoTramos );
+            out.writeInt( tiempoMinimoConexion );
+            escribirTexto( out, horaReferencia );
+
+            String[] aeropuertos = new String[indiceAeropuertos.size( )];
+            for( Map.Entry<String, Integer> aeropuerto : indiceAeropuertos.entrySet( ) )
+                aeropuertos[ aeropuerto.getValue( ) ] = aeropuerto.getKey( );
+            out.writeInt( aeropuertos.length );
+            for( String codigo : aeropuertos )
+                escribirTexto( out, codigo );
+            out.writeInt( rutas.size( ) );
+            for( Ruta ruta : rutas )
+                escribirTexto( out, ruta.getCodigoRuta( ) );
+
+            ByteBuffer contenido = celdas.duplicate( );
+            contenido.clear( );
+            out.writeInt( contenido.remaining( ) );
+            byte[] bloque = new byte[1 << 16];
+            while( contenido.hasRemaining( ) )
+            {
+                int cantidad = Math.min( bloque.length, contenido.remaining( ) );
+                contenido.get( bloque, 0, cantidad );
+                out.write( bloque, 0, cantidad );
+            }
+        }
+        finally
+        {
+            candado.readLock( ).unlock( );
+        }
+    }
+
+    /**
+     * Crea una tabla a partir del contenido que se escribió con el método escribir. Las celdas no se copian: la tabla usa directamente el buffer, así que si el buffer es un
+     * archivo mapeado en memoria, la tabla queda lista sin leer el archivo.
+     * @param buffer El buffer posicionado al comienzo del contenido. Si la tabla se va a actualizar, el buffer tiene que permitir escribir.
+     * @param aerolinea La aerolínea que tiene las rutas de la tabla
+     * @return La tabla
+     * @throws IOException Se lanza esta excepción si el contenido no corresponde a una tabla de conexiones o si tiene rutas que la aerolínea no tiene
+     */
+    public static TablaConexiones leer( ByteBuffer buffer, Aerolinea aerolinea ) throws IOException
+    {
+        TablaConexiones tabla = new TablaConexiones( buffer.getInt( ), buffer.getInt( ), leerTexto( buffer ) );
+
+        List<String> aeropuertos = new ArrayList<String>( );
+        int cantidadAeropuertos = buffer.getInt( );
+        for( int i = 0; i < cantidadAeropuertos; i++ )
+            aeropuertos.add( leerTexto( buffer ) );
+        List<Ruta> rutas = new ArrayList<Ruta>( );
+        int cantidadRutas = buffer.getInt( );
+        for( int i = 0; i < cantidadRutas; i++ )
+        {
+            String codigo = leerTexto( buffer );
+            Ruta ruta = aerolinea.getRuta( codigo );
+            if( ruta == null )
+                throw new IOException( "La tabla de conexiones usa la ruta " + codigo + ", que la aerolínea no tiene" );
+            rutas.add( ruta );
+        }
+
+        int tamano = buffer.getInt( );
+        long esperado = ( long )cantidadAeropuertos * cantidadAeropuertos * PRIORIDADES.length * tabla.enterosCelda * Integer.BYTES;
+        if( tamano != esperado || buffer.remaining( ) < tamano )
+            throw new IOException( "El tamaño de las celdas de la tabla de conexiones no es válido" );
+        ByteBuffer celdas = buffer.slice( );
+        celdas.limit( tamano );
+
+        synchronized( tabla )
+        {
+            tabla.crearGrafo( rutas );
+            tabla.publicar( aeropuertos, rutas, celdas );
+        }
+        return tabla;
+    }
+
+    /**
+     * Calcula toda la tabla para un conjunto de rutas y la publica
+     * @param todas Las rutas de la tabla
+     */
+    private void reconstruir( List<Ruta> todas )
+    {
+        Set<String> aeropuertos = new LinkedHashSet<String>( );
+        for( Ruta ruta : todas )
+        {
+            aeropuertos.add( ruta.getOrigen( ).getCodigo( ) );
+            aeropuertos.add( ruta.getDestino( ).getCodigo( ) );
+        }
+        List<String> codigos = new ArrayList<String>( aeropuertos );
+        int cantidad = codigos.size( );
+        ByteBuffer nuevas = ByteBuffer.allocateDirect( Math.multiplyExact( Math.multiplyExact( cantidad, cantidad ), PRIORIDADES.length * enterosCelda * Integer.BYTES ) );
+
+        // Los índices nuevos no se publican hasta el final, para que las consultas sigan usando la tabla anterior mientras se calcula la nueva
+        Map<String, Integer> nuevoIndiceAeropuertos = indexarAeropuertos( codigos );
+        Map<String, Integer> nuevoIndiceRutas = indexarRutas( todas );
+        crearGrafo( todas );
+        IntStream.range( 0, cantidad ).parallel( ).forEach( i -> escribirFila( nuevas, i, calcularFila( codigos.get( i ), cantidad, nuevoIndiceAeropuertos, nuevoIndiceRutas ) ) );
+        publicar( codigos, todas, nuevas );
+    }
+
+    /**
+     * Reemplaza los datos que usan las consultas
+     * @param aeropuertos Los códigos de los aeropuertos, en el orden de la tabla
+     * @param todas Las rutas, en el orden en el que las referencian las celdas
+     * @param nuevas Las celdas
+     */
+    private void publicar( List<String> aeropuertos, List<Ruta> todas, ByteBuffer nuevas )
+    {
+        Map<String, Integer> nuevoIndiceAeropuertos = indexarAeropuertos( aeropuertos );
+        Map<String, Integer> nuevoIndiceRutas = indexarRutas( todas );
+        candado.writeLock( ).lock( );
+        try
+        {
+            indiceAeropuertos = nuevoIndiceAeropuertos;
+            rutas = new ArrayList<Ruta>( todas );
+            indiceRutas = nuevoIndiceRutas;
+            celdas = nuevas;
+        }
+        finally
+        {
+            candado.writeLock( ).unlock( );
+        }
+    }
+
+    /**
+     * Crea el grafo que usan las actualizaciones con un conjunto de rutas
+     * @param todas Las rutas
+     */
+    private void crearGrafo( List<Ruta> todas )
+    {
+        red = new RedRutas( );
+        origenesHacia = new HashMap<String, Set<String>>( );
+        for( Ruta ruta : todas )
+            agregarAlGrafo( ruta );
+    }
+
+    private void agregarAlGrafo( Ruta ruta )
+    {
+        red.agregarRuta( ruta );
+        origenesHacia.computeIfAbsent( ruta.getDestino( ).getCodigo( ), codigo -> new HashSet<String>( ) ).add( ruta.getOrigen( ).getCodigo( ) );
+    }
+
+    /**
+     * Calcula las celdas de todos los itinerarios que salen de un aeropuerto
+     * @param origen El código del aeropuerto
+     * @param cantidad La cantidad de aeropuertos de la tabla
+     * @param aeropuertos La posición de cada aeropuerto
+     * @param posicionesRutas La posición de cada ruta
+     * @return Los enteros de todas las celdas de la fila, en orden
+     */
+    private int[] calcularFila( String origen, int cantidad, Map<String, Integer> aeropuertos, Map<String, Integer> posicionesRutas )
+    {
+        int[] fila = new int[cantidad * PRIORIDADES.length * enterosCelda];
+        for( int p = 0; p < PRIORIDADES.length; p++ )
+        {
+            Map<String, Itinerario> mejores = red.buscarItinerariosDesde( origen, horaReferencia, PRIORIDADES[ p ], tiempoMinimoConexion, maximoTramos );
+            for( Map.Entry<String, Itinerario> mejor : mejores.entrySet( ) )
+            {
+                List<Ruta> tramos = mejor.getValue( ).getRutas( );
+                int inicio = ( aeropuertos.get( mejor.getKey( ) ) * PRIORIDADES.length + p ) * enterosCelda;
+                fila[ inicio ] = tramos.size( );
+                for( int t = 0; t < tramos.size( ); t++ )
+                    fila[ inicio + t + 1 ] = posicionesRutas.get( tramos.get( t ).getCodigoRuta( ) );
+            }
+        }
+        return fila;
+    }
+
+    private static Map<String, Integer> indexarAeropuertos( List<String> codigos )
+    {
+        Map<String, Integer> indice = new HashMap<String, Integer>( );
+        for( int i = 0; i < codigos.size( ); i++ )
+            indice.put( codigos.get( i ), i );
+        return indice;
+    }
+
+    private static Map<String, Integer> indexarRutas( List<Ruta> todas )
+    {
+        Map<String, Integer> indice = new HashMap<String, Integer>( );
+        for( int i = 0; i < todas.size( ); i++ )
+            indice.put( todas.get( i ).getCodigoRuta( ), i );
+        return indice;
+    }
+
+    /**
+     * Copia una fila de celdas en su lugar dentro de un buffer
+     * @param destino El buffer de las celdas
+     * @param origen La posición del aeropuerto de origen de la fila
+     * @param fila Los enteros de la fila
+     */
+    private static void escribirFila( ByteBuffer destino, int origen, int[] fila )
+    {
+        int inicio = origen * fila.length * Integer.BYTES;
+        for( int k = 0; k < fila.length; k++ )
+            destino.putInt( inicio + k * Integer.BYTES, fila[ k ] );
+    }
+
+    private static void escribirTexto( DataOutputStream out, String texto ) throws IOException
+    {
+        byte[] bytes = texto.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String leerTexto( ByteBuffer buffer )
+    {
+        byte[] bytes = new byte[buffer.getInt( )];
+        buffer.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
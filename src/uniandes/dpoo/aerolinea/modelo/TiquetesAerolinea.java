@@ -0,0 +1,187 @@
+package uniandes.dpoo.aerolinea.modelo;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import uniandes.dpoo.aerolinea.tiquetes.Tiquete;
+
+/**
+ * Esta clase es una vista de solo lectura de todos los tiquetes de una aerolínea, que los recorre vuelo por vuelo sin copiarlos.
+ *
+ * La vista no es una fotografía: cada recorrido ve los vuelos que tenga la aerolínea en ese momento, y los tiquetes que se vendan mientras se recorre un vuelo pueden aparecer
+ * o no. Quien necesite recorrer dos veces exactamente los mismos tiquetes debe copiarlos primero.
+ *
+ * Para recorrer los tiquetes en paralelo, el spliterator reparte los vuelos en dos grupos con más o menos la misma cantidad de asientos vendidos; cuando le queda un solo
+ * vuelo, reparte los tiquetes de ese vuelo.
+ */
+class TiquetesAerolinea extends AbstractCollection<Tiquete>
+{
+    /**
+     * Los vuelos de la aerolínea
+     */
+    private final Collection<Vuelo> vuelos;
+
+    /**
+     * Construye una vista de los tiquetes de unos vuelos
+     * @param vuelos Los vuelos. La vista no los copia, así que refleja los cambios en la colección.
+     */
+    TiquetesAerolinea( Collection<Vuelo> vuelos )
+    {
+        this.vuelos = vuelos;
+    }
+
+    @Override
+    public Iterator<Tiquete> iterator( )
+    {
+        return Spliterators.iterator( spliterator( ) );
+    }
+
+    @Override
+    public Spliterator<Tiquete> spliterator( )
+    {
+        Vuelo[] losVuelos = vuelos.toArray( new Vuelo[0] );
+        long[] acumulados = new long[losVuelos.length + 1];
+        for( int i = 0; i < losVuelos.length; i++ )
+            acumulados[ i + 1 ] = acumulados[ i ] + losVuelos[ i ].getAsientosVendidos( );
+        return new SpliteratorTiquetes( losVuelos, acumulados, 0, losVuelos.length );
+    }
+
+    /**
+     * Retorna la cantidad de tiquetes. Para calcularla se cuentan los tiquetes de cada vuelo.
+     */
+    @Override
+    public int size( )
+    {
+        long cantidad = 0;
+        for( Vuelo vuelo : vuelos )
+            cantidad += vuelo.getTiquetes( ).size( );
+        return ( int )Math.min( cantidad, Integer.MAX_VALUE );
+    }
+
+    @Override
+    public boolean isEmpty( )
+    {
+        for( Vuelo vuelo : vuelos )
+        {
+            if( !vuelo.getTiquetes( ).isEmpty( ) )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Recorre los tiquetes de un rango de vuelos. Los asientos vendidos de cada vuelo se usan para estimar cuántos tiquetes faltan y para partir el rango.
+     */
+    private static class SpliteratorTiquetes implements Spliterator<Tiquete>
+    {
+        private final Vuelo[] vuelos;
+
+        /**
+         * En la posición i, la suma de los asientos vendidos de los vuelos anteriores al vuelo i
+         */
+        private final long[] acumulados;
+
+        /**
+         * El siguiente vuelo que no se ha empezado a recorrer
+         */
+        private int siguiente;
+
+        /**
+         * El vuelo siguiente al último del rango
+         */
+        private int fin;
+
+        /**
+         * El recorrido de los tiquetes del vuelo actual, o null si no se ha empezado ninguno
+         */
+        private Spliterator<Tiquete> actual;
+
+        private SpliteratorTiquetes( Vuelo[] vuelos, long[] acumulados, int inicio, int fin )
+        {
+            this.vuelos = vuelos;
+            this.acumulados = acumulados;
+            this.siguiente = inicio;
+            this.fin = fin;
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super Tiquete> accion )
+        {
+            while( actual == null || !actual.tryAdvance( accion ) )
+            {
+                if( siguiente >= fin )
+                    return false;
+                actual = vuelos[ siguiente++ ].getTiquetes( ).spliterator( );
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining( Consumer<? super Tiquete> accion )
+        {
+            if( actual != null )
+                actual.forEachRemaining( accion );
+            actual = null;
+            for( ; siguiente < fin; siguiente++ )
+                vuelos[ siguiente ].getTiquetes( ).forEach( accion );
+        }
+
+        @Override
+        public Spliterator<Tiquete> trySplit( )
+        {
+            if( fin - siguiente >= 2 )
+            {
+                // Buscar el vuelo donde la suma de asientos vendidos llega a la mitad del rango, dejando al menos un vuelo en cada parte
+                long mitad = ( acumulados[ siguiente ] + acumulados[ fin ] ) / 2;
+                int bajo = siguiente + 1;
+                int alto = fin - 1;
+                while( bajo < alto )
+                {
+                    int medio = ( bajo + alto ) >>> 1;
+                    if( acumulados[ medio ] < mitad )
+                        bajo = medio + 1;
+                    else
+                        alto = medio;
+                }
+                SpliteratorTiquetes resto = new SpliteratorTiquetes( vuelos, acumulados, bajo, fin );
+                fin = bajo;
+                return resto;
+            }
+
+            // Queda un solo vuelo por empezar, o ninguno: se reparten los tiquetes del vuelo
+            if( actual == null )
+            {
+                if( siguiente >= fin )
+                    return null;
+                actual = vuelos[ siguiente++ ].getTiquetes( ).spliterator( );
+            }
+            if( siguiente < fin )
+            {
+                // Todavía falta el último vuelo del rango, y se entrega completo
+                SpliteratorTiquetes resto = new SpliteratorTiquetes( vuelos, acumulados, siguiente, fin );
+                fin = siguiente;
+                return resto;
+            }
+            return actual.trySplit( );
+        }
+
+        @Override
+        public long estimateSize( )
+        {
+            long estimado = acumulados[ fin ] - acumulados[ siguiente ];
+            if( actual != null )
+                estimado += actual.estimateSize( );
+            return estimado;
+        }
+
+        @Override
+        public int characteristics( )
+        {
+            return Spliterator.NONNULL;
+        }
+    }
+}
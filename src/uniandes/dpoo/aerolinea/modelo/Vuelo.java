@@ -1,9 +1,19 @@
 package uniandes.dpoo.aerolinea.modelo;
 
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import uniandes.dpoo.aerolinea.tarifas.CalculadoraTarifas;
+import uniandes.dpoo.aerolinea.tiquetes.AlmacenTiquetes;
 import uniandes.dpoo.aerolinea.tiquetes.GeneradorTiquetes;
 import uniandes.dpoo.aerolinea.tiquetes.Tiquete;
 import uniandes.dpoo.aerolinea.exceptions.VueloSobrevendidoException;
@@ -13,15 +23,31 @@ public class Vuelo {
     // Atributos
     private Ruta ruta;
     private String fecha;
+    // La fecha ya interpretada, para no tener que interpretarla en cada venta. Es null si la fecha no es válida
+    private LocalDate fechaVuelo;
     private Avion avion;
-    private Collection<Tiquete> tiquetes;
+    // Es volatile porque al archivar los tiquetes la colección se cambia por una vista del almacén
+    private volatile Collection<Tiquete> tiquetes;
+    // La cantidad de asientos vendidos o reservados. Se lleva aparte de la colección de tiquetes para que
+    // la reserva de asientos sea una sola operación atómica y varios hilos puedan vender a la vez sin sobrevender
+    private final AtomicInteger asientosVendidos = new AtomicInteger();
+    // Indica si alguno de los tiquetes del vuelo cambió desde la última vez que se salvaron los tiquetes
+    private volatile boolean modificado;
+    // Indica si el vuelo ya se realizó. Todos los tiquetes de un vuelo realizado cuentan como usados
+    private volatile boolean realizado;
+    // Indica si los tiquetes del vuelo ya se pasaron a un almacén de tiquetes. Un vuelo archivado no acepta tiquetes nuevos
+    private volatile boolean archivado;
+    // La cantidad de ventas que ya reservaron asientos pero todavía no se confirmaron. Se usa con el candado del vuelo
+    private int ventasEnCurso;
+    // Indica que el vuelo se está registrando como realizado y está esperando a que terminen las ventas en curso. Se usa con el candado del vuelo
+    private boolean realizando;
 
     // Constructor
     public Vuelo(Ruta ruta, String fecha, Avion avion) {
         this.setRuta(ruta);
         this.setFecha(fecha);
         this.setAvion(avion);
-        this.setTiquetes(new LinkedList<>());
+        this.setTiquetes(new ConcurrentLinkedQueue<>());
     }
 
     // Métodos getter y setter
@@ -31,6 +57,119 @@ public class Vuelo {
 
     public void setTiquetes(Collection<Tiquete> tiquetes) {
         this.tiquetes = tiquetes;
+        this.asientosVendidos.set(tiquetes.size());
+    }
+
+    // Asocia al vuelo un tiquete que ya existía, por ejemplo uno que se cargó de un archivo
+    public void agregarTiquete(Tiquete tiquete) {
+        this.asientosVendidos.incrementAndGet();
+        agregarAlVuelo(Collections.singletonList(tiquete));
+    }
+
+    // Agrega tiquetes a la colección del vuelo. Usa el candado del vuelo para no agregar tiquetes mientras se archivan
+    private void agregarAlVuelo(Collection<Tiquete> nuevos) {
+        synchronized (this) {
+            if (archivado) {
+                liberarAsientos(nuevos.size());
+                throw new IllegalStateException("Los tiquetes del vuelo ya se archivaron");
+            }
+            this.tiquetes.addAll(nuevos);
+        }
+        this.modificado = true;
+    }
+
+    // Métodos para saber qué vuelos tienen tiquetes que hay que volver a salvar
+    public boolean isModificado() {
+        return modificado;
+    }
+
+    public void marcarComoModificado() {
+        this.modificado = true;
+    }
+
+    public void marcarComoGuardado() {
+        this.modificado = false;
+    }
+
+    public boolean isRealizado() {
+        return realizado;
+    }
+
+    // Registra que el vuelo se realizó. Desde ese momento todos sus tiquetes cuentan como usados sin tener que marcarlos uno por uno,
+    // y los totales de cada cliente se actualizan con una sola operación por cliente.
+    // Usa el mismo candado con el que los tiquetes cambian de usado. Retorna false si el vuelo ya estaba realizado.
+    // Si hay ventas preparadas que todavía no se confirman, espera a que terminen para que sus tiquetes queden en los totales;
+    // mientras tanto no se pueden preparar ventas nuevas
+    public synchronized boolean realizar() {
+        if (realizado || realizando) {
+            return false;
+        }
+        realizando = true;
+        boolean interrumpido = false;
+        while (ventasEnCurso > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Sumar, por cliente, las tarifas de los tiquetes que hasta ahora estaban sin usar
+        Map<Cliente, long[]> usadosPorCliente = new IdentityHashMap<>();
+        for (Tiquete tiquete : tiquetes) {
+            if (!tiquete.isUsado()) {
+                if (tiquete.isContabilizado()) {
+                    long[] usados = usadosPorCliente.computeIfAbsent(tiquete.getCliente(), c -> new long[2]);
+                    usados[0] += tiquete.getTarifa();
+                    usados[1]++;
+                }
+                // El tiquete cambia de estado, así que hay que volver a salvarlo
+                tiquete.marcarComoModificado();
+            }
+        }
+        realizado = true;
+
+        for (Map.Entry<Cliente, long[]> usados : usadosPorCliente.entrySet()) {
+            usados.getKey().registrarTiquetesUsados(usados.getValue()[0], (int) usados.getValue()[1]);
+        }
+        return true;
+    }
+
+    public boolean isArchivado() {
+        return archivado;
+    }
+
+    // Pasa los tiquetes del vuelo a un almacén de tiquetes, donde ocupan mucho menos memoria, y cambia la colección de tiquetes
+    // por una vista del almacén. Sólo se pueden archivar los vuelos realizados, porque sus tiquetes ya no cambian los totales de los clientes.
+    // Los clientes del vuelo también dejan de guardar los tiquetes propios. Retorna false si el vuelo ya estaba archivado
+    // o si tiene ventas sin confirmar; en ese caso se puede volver a intentar más tarde.
+    // Lanza IOException si el almacén guarda los tiquetes en un archivo y no se pudo escribir; en ese caso el vuelo queda como estaba
+    public boolean archivarTiquetes(AlmacenTiquetes almacen) throws IOException {
+        List<Tiquete> archivados;
+        synchronized (this) {
+            if (!realizado) {
+                throw new IllegalStateException("Sólo se pueden archivar los tiquetes de un vuelo realizado");
+            }
+            if (archivado || ventasEnCurso > 0) {
+                return false;
+            }
+            archivados = new ArrayList<>(tiquetes);
+            int inicio = almacen.agregar(archivados);
+            this.tiquetes = almacen.getTiquetes(inicio, inicio + archivados.size());
+            archivado = true;
+        }
+
+        // Los clientes se actualizan sin el candado del vuelo, porque el orden de los candados es primero el del cliente y después el del vuelo
+        Map<Cliente, Boolean> clientes = new IdentityHashMap<>();
+        for (Tiquete tiquete : archivados) {
+            if (clientes.put(tiquete.getCliente(), Boolean.TRUE) == null) {
+                tiquete.getCliente().archivarVuelo(this);
+            }
+        }
+        return true;
     }
 
     public Avion getAvion() {
@@ -53,33 +192,148 @@ public class Vuelo {
         return fecha;
     }
 
+    public LocalDate getFechaVuelo() {
+        return fechaVuelo;
+    }
+
     public void setFecha(String fecha) {
+        LocalDate interpretada;
+        try {
+            interpretada = LocalDate.parse(fecha);
+        } catch (DateTimeParseException e) {
+            interpretada = null;
+        }
         this.fecha = fecha;
+        this.fechaVuelo = interpretada;
     }
 
     // Método para vender tiquetes
     public int venderTiquetes(Cliente cliente, CalculadoraTarifas calculadora, int cantidad) throws VueloSobrevendidoException {
-        // Verificar si hay espacio suficiente en el vuelo
-        if (this.getTiquetes().size() + cantidad > this.getAvion().getCapacidad()) {
+        // Calcular el costo total de los tiquetes
+        int tarifaTotal = 0;
+        for (Tiquete tiquete : emitirTiquetes(cliente, calculadora, cantidad)) {
+            tarifaTotal += tiquete.getTarifa();
+        }
+
+        return tarifaTotal;
+    }
+
+    // Crea los tiquetes de una venta, los agrega al vuelo y al cliente, y los retorna
+    // para que quien hizo la venta pueda registrarlos (por ejemplo en la bitácora)
+    public List<Tiquete> emitirTiquetes(Cliente cliente, CalculadoraTarifas calculadora, int cantidad) throws VueloSobrevendidoException {
+        List<Tiquete> nuevos = prepararTiquetes(cliente, calculadora, cantidad);
+        confirmarTiquetes(cliente, nuevos);
+        return nuevos;
+    }
+
+    // Reserva los asientos de una venta y crea sus tiquetes, pero todavía no los agrega al vuelo ni al cliente.
+    // Después se debe llamar confirmarTiquetes o cancelarTiquetes. Mientras tanto, los tiquetes del vuelo no se pueden archivar.
+    // Lanza IllegalArgumentException si la cantidad no es positiva, e IllegalStateException si el vuelo ya se realizó
+    public List<Tiquete> prepararTiquetes(Cliente cliente, CalculadoraTarifas calculadora, int cantidad) throws VueloSobrevendidoException {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad de tiquetes debe ser positiva: " + cantidad);
+        }
+        if (realizado) {
+            throw new IllegalStateException("El vuelo ya se realizó");
+        }
+
+        // Reservar los asientos antes de crear los tiquetes
+        if (!reservarAsientos(cantidad)) {
             throw new VueloSobrevendidoException(this);
         }
 
-        // Calcular el costo total de los tiquetes
-        int tarifaTotal = 0;
-        for (int i = 0; i < cantidad; i++) {
+        List<Tiquete> nuevos = null;
+        try {
+            nuevos = new ArrayList<>(cantidad);
+            // Todos los tiquetes de la compra tienen la misma tarifa, así que se calcula una sola vez
             int tarifa = calculadora.calcularTarifa(this, cliente);
-            tarifaTotal += tarifa;
+            for (int i = 0; i < cantidad; i++) {
+                // Generar el código del tiquete aquí
+                String codigoTiquete = GeneradorTiquetes.generarCodigo();
+                nuevos.add(new Tiquete(codigoTiquete, this, cliente, tarifa));
+            }
+            // Se vuelve a revisar con el candado del vuelo, porque el vuelo se pudo realizar mientras se creaban los tiquetes
+            synchronized (this) {
+                if (realizado || realizando) {
+                    throw new IllegalStateException("El vuelo ya se realizó");
+                }
+                ventasEnCurso++;
+            }
+        } catch (RuntimeException e) {
+            // Si no se pudieron crear los tiquetes, los asientos reservados y los códigos vuelven a quedar libres
+            liberarAsientos(cantidad);
+            if (nuevos != null) {
+                for (Tiquete tiquete : nuevos) {
+                    GeneradorTiquetes.liberarCodigo(tiquete.getCodigo());
+                }
+            }
+            throw e;
+        }
+        return nuevos;
+    }
 
-            // Generar el código del tiquete aquí
-            String codigoTiquete = GeneradorTiquetes.generarCodigo();
+    // Agrega al vuelo y al cliente los tiquetes de una venta preparada con prepararTiquetes.
+    // Los asientos ya están reservados y el vuelo no se pudo realizar ni archivar entretanto, así que esto no puede fallar.
+    // Los tiquetes se agregan al cliente antes de terminar la venta, para que realizar los encuentre ya sumados en los totales del cliente
+    public void confirmarTiquetes(Cliente cliente, List<Tiquete> nuevos) {
+        synchronized (this) {
+            this.tiquetes.addAll(nuevos);
+        }
+        this.modificado = true;
+        cliente.agregarTiquetes(nuevos);
+        terminarVenta();
+    }
 
-            // Crear y agregar el tiquete al vuelo y al cliente
-            Tiquete nuevoTiquete = new Tiquete(codigoTiquete, this, cliente, tarifa);
-            this.getTiquetes().add(nuevoTiquete);
-            cliente.agregarTiquete(nuevoTiquete);
+    // Deshace una venta preparada con prepararTiquetes: libera los asientos y los códigos de los tiquetes
+    public void cancelarTiquetes(List<Tiquete> nuevos) {
+        liberarAsientos(nuevos.size());
+        for (Tiquete tiquete : nuevos) {
+            GeneradorTiquetes.liberarCodigo(tiquete.getCodigo());
         }
+        terminarVenta();
+    }
 
-        return tarifaTotal;
+    // Descuenta una venta en curso y despierta a quien esté esperando para realizar el vuelo
+    private synchronized void terminarVenta() {
+        ventasEnCurso--;
+        if (ventasEnCurso == 0) {
+            notifyAll();
+        }
+    }
+
+    // Reserva asientos en el vuelo sin usar candados: se lee cuántos asientos hay vendidos y se intenta
+    // actualizar el contador con compareAndSet. Si otro hilo lo cambió entretanto, se vuelve a intentar.
+    // Retorna false si no hay suficientes asientos libres, y lanza IllegalArgumentException si la cantidad no es positiva
+    public boolean reservarAsientos(int cantidad) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad de asientos debe ser positiva: " + cantidad);
+        }
+        int capacidad = this.getAvion().getCapacidad();
+        while (true) {
+            int vendidos = this.asientosVendidos.get();
+            // Se compara con los asientos libres para que una cantidad muy grande no desborde la suma
+            if (cantidad > capacidad - vendidos) {
+                return false;
+            }
+            if (this.asientosVendidos.compareAndSet(vendidos, vendidos + cantidad)) {
+                return true;
+            }
+        }
+    }
+
+    // Libera asientos que se habían reservado pero para los que no se crearon tiquetes
+    public void liberarAsientos(int cantidad) {
+        this.asientosVendidos.addAndGet(-cantidad);
+    }
+
+    // Retorna la cantidad de asientos vendidos o reservados
+    public int getAsientosVendidos() {
+        return asientosVendidos.get();
+    }
+
+    // Retorna la cantidad de asientos que todavía se pueden vender
+    public int getAsientosDisponibles() {
+        return this.getAvion().getCapacidad() - asientosVendidos.get();
     }
 
     // Método equals para comparar vuelos
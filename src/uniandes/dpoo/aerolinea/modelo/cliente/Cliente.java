@@ -3,48 +3,141 @@ package uniandes.dpoo.aerolinea.modelo.cliente;
 import uniandes.dpoo.aerolinea.tiquetes.Tiquete;
 import uniandes.dpoo.aerolinea.modelo.Vuelo;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class Cliente {
 
     // Atributos
     protected String identificador;
     protected List<Tiquete> tiquetes;
+    // Los vuelos cuyos tiquetes ya se pasaron a un almacén de tiquetes. Los tiquetes del cliente en esos vuelos no están en la lista,
+    // sino que se leen del vuelo
+    private final Set<Vuelo> vuelosArchivados = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Indica si el cliente no se ha salvado desde que se creó
+    private volatile boolean modificado;
+
+    // Totales de los tiquetes del cliente. Se actualizan cuando se agrega un tiquete o cuando un tiquete cambia de usado,
+    // para que consultarlos no requiera recorrer todos los tiquetes. Son atómicos porque los tiquetes avisan sus cambios sin tomar el candado del cliente
+    private final AtomicLong valorTotal = new AtomicLong();
+    private final AtomicLong saldoPendiente = new AtomicLong();
+    private final AtomicInteger tiquetesSinUsar = new AtomicInteger();
 
     // Constructor por defecto
     public Cliente() {
         tiquetes = new ArrayList<>();
+        modificado = true;
     }
 
     // Métodos abstractos que deben ser implementados por las subclases
     public abstract String getIdentificador();
     public abstract String getTipoCliente();
 
-    // Agregar un tiquete a la lista de tiquetes del cliente
-    public void agregarTiquete(Tiquete tiquete) {
+    // Agregar un tiquete a la lista de tiquetes del cliente.
+    // Los métodos que usan la lista están sincronizados porque un cliente puede comprar en varios vuelos a la vez
+    public synchronized void agregarTiquete(Tiquete tiquete) {
         tiquetes.add(tiquete);
+        contabilizar(tiquete);
+    }
+
+    // Agregar de una vez todos los tiquetes de una compra
+    public synchronized void agregarTiquetes(Collection<Tiquete> nuevos) {
+        tiquetes.addAll(nuevos);
+        for (Tiquete tiquete : nuevos) {
+            contabilizar(tiquete);
+        }
+    }
+
+    // Sumar un tiquete nuevo en los totales
+    private void contabilizar(Tiquete tiquete) {
+        valorTotal.addAndGet(tiquete.getTarifa());
+        if (!tiquete.contabilizar()) {
+            saldoPendiente.addAndGet(tiquete.getTarifa());
+            tiquetesSinUsar.incrementAndGet();
+        }
+    }
+
+    // Lo llama un tiquete del cliente cuando cambia de usado
+    public void actualizarSaldo(Tiquete tiquete) {
+        if (tiquete.isUsado()) {
+            saldoPendiente.addAndGet(-tiquete.getTarifa());
+            tiquetesSinUsar.decrementAndGet();
+        } else {
+            saldoPendiente.addAndGet(tiquete.getTarifa());
+            tiquetesSinUsar.incrementAndGet();
+        }
+    }
+
+    // Lo llama un vuelo cuando se realiza, con la suma de las tarifas y la cantidad de tiquetes del cliente que quedaron usados
+    public void registrarTiquetesUsados(long valor, int cantidad) {
+        saldoPendiente.addAndGet(-valor);
+        tiquetesSinUsar.addAndGet(-cantidad);
     }
 
     // Calcular el valor total de los tiquetes del cliente
-    public int calcularValorTotalTiquetes() {
-        int total = 0;
-        for (Tiquete tiquete : tiquetes) {
-            total += tiquete.getTarifa(); // Suponiendo que el método getTarifa() existe en Tiquete
+    public long calcularValorTotalTiquetes() {
+        return valorTotal.get();
+    }
+
+    // La suma de lo que pagó el cliente por los tiquetes que no ha usado
+    public long getSaldoPendiente() {
+        return saldoPendiente.get();
+    }
+
+    // La cantidad de tiquetes que el cliente no ha usado
+    public int getCantidadTiquetesSinUsar() {
+        return tiquetesSinUsar.get();
+    }
+
+    // Métodos para saber qué clientes hay que volver a salvar
+    public boolean isModificado() {
+        return modificado;
+    }
+
+    public void marcarComoModificado() {
+        this.modificado = true;
+    }
+
+    public void marcarComoGuardado() {
+        this.modificado = false;
+    }
+
+    // Lo llama un vuelo cuando archiva sus tiquetes: el cliente deja de guardar sus tiquetes de ese vuelo y desde ese momento los lee del vuelo
+    public synchronized void archivarVuelo(Vuelo vuelo) {
+        if (vuelosArchivados.add(vuelo)) {
+            tiquetes.removeIf(tiquete -> tiquete.getVuelo() == vuelo);
         }
-        return total;
     }
 
     // Usar los tiquetes del cliente en un vuelo
-    public void usarTiquetes(Vuelo vuelo) {
-        for (Tiquete tiquete : tiquetes) {
-            if (tiquete.getVuelo().equals(vuelo)) {
+    public synchronized void usarTiquetes(Vuelo vuelo) {
+        Collection<Tiquete> delVuelo = vuelosArchivados.contains(vuelo) ? vuelo.getTiquetes() : tiquetes;
+        for (Tiquete tiquete : delVuelo) {
+            // Se compara la identidad del vuelo: en una aerolínea hay un solo objeto por cada vuelo, y así no hay que comparar cadenas
+            if (tiquete.getVuelo() == vuelo && tiquete.getCliente() == this) {
                 tiquete.marcarComoUsado(); // Suponiendo que existe el método marcarComoUsado en Tiquete
             }
         }
     }
 
-	public Tiquete[] getTiquetes() {
-		// TODO Auto-generated method stub
-		return null;
+	// Retorna una copia de los tiquetes del cliente, incluyendo los de los vuelos archivados
+	public synchronized Tiquete[] getTiquetes() {
+		if (vuelosArchivados.isEmpty()) {
+			return tiquetes.toArray(new Tiquete[tiquetes.size()]);
+		}
+		List<Tiquete> todos = new ArrayList<>(tiquetes);
+		for (Vuelo vuelo : vuelosArchivados) {
+			for (Tiquete tiquete : vuelo.getTiquetes()) {
+				if (tiquete.getCliente() == this) {
+					todos.add(tiquete);
+				}
+			}
+		}
+		return todos.toArray(new Tiquete[todos.size()]);
 	}
 }
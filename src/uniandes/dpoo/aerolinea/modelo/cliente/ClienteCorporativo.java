@@ -70,7 +70,7 @@ public class ClienteCorporativo extends Cliente
         JSONObject jobject = new JSONObject();
         jobject.put("nombreEmpresa", this.nombreEmpresa);
         jobject.put("tamanoEmpresa", this.tamanoEmpresa);
-        jobject.put("tipo", CORPORATIVO);
+        jobject.put("tipoCliente", CORPORATIVO);
         return jobject;
     }
 
@@ -82,7 +82,7 @@ public class ClienteCorporativo extends Cliente
     }
 
     @Override
-    public int calcularValorTotalTiquetes() {
+    public long calcularValorTotalTiquetes() {
         return super.calcularValorTotalTiquetes();
     }
 
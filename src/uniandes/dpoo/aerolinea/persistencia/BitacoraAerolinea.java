@@ -0,0 +1,797 @@
+package uniandes.dpoo.aerolinea.persistencia;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteException;
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteTiqueteException;
+import uniandes.dpoo.aerolinea.modelo.Aerolinea;
+import uniandes.dpoo.aerolinea.modelo.Vuelo;
+import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
+import uniandes.dpoo.aerolinea.modelo.cliente.ClienteCorporativo;
+import uniandes.dpoo.aerolinea.modelo.cliente.ClienteNatural;
+import uniandes.dpoo.aerolinea.tiquetes.GeneradorTiquetes;
+import uniandes.dpoo.aerolinea.tiquetes.Tiquete;
+
+/**
+ * Esta clase mantiene una bitácora de escritura anticipada con los eventos que modifican a la aerolínea: vuelos programados, tiquetes vendidos y vuelos realizados.
+ *
+ * Cada evento se agrega al final de un archivo de la bitácora, así que el costo de hacer durable una venta no depende de la cantidad de tiquetes que ya tenga la aerolínea.
+ * Los eventos se acumulan en memoria y se escriben y se sincronizan con el disco en grupo: cuando se acumulan suficientes eventos, o cuando pasa cierto tiempo desde el último
+ * evento. Si varios hilos registran eventos a la vez, una sola sincronización cubre los eventos de todos.
+ *
+ * En la carpeta de la bitácora hay dos tipos de archivos:
+ * <ul>
+ * <li>bitacora.N.log: los segmentos de la bitácora. Cada registro tiene su longitud, un CRC32 de su contenido y el contenido.</li>
+ * <li>aerolinea.N.snap: una fotografía de la aerolínea en el formato de PersistenciaAerolineaBinaria, que incluye todos los eventos de los segmentos anteriores al N.</li>
+ * </ul>
+ * Al compactar, se toma la fotografía de la aerolínea y se empieza un segmento nuevo en un mismo corte; luego se escribe la fotografía y al terminar se borran los segmentos y
+ * las fotografías viejas. Al recuperar, se carga la última fotografía y se reproducen los segmentos siguientes. La reproducción es idempotente (se ignoran los vuelos y
+ * tiquetes que ya existen), así que no importa si un evento quedó tanto en la fotografía como en un segmento.
+ *
+ * Para que el corte sea consistente, cada operación de la aerolínea que registra un evento debe llamar a iniciarOperacion antes de registrarlo y a terminarOperacion después de
+ * aplicarlo. El corte espera a que no haya operaciones a medias, de modo que todo evento de los segmentos viejos ya está aplicado en la fotografía.
+ */
+public class BitacoraAerolinea implements Closeable
+{
+    private static final byte VUELO_PROGRAMADO = 1;
+    private static final byte TIQUETES_VENDIDOS = 2;
+    private static final byte VUELO_REALIZADO = 3;
+
+    private static final byte TIPO_NATURAL = 0;
+    private static final byte TIPO_CORPORATIVO = 1;
+
+    private static final String PREFIJO_SEGMENTO = "bitacora.";
+    private static final String EXTENSION_SEGMENTO = ".log";
+    private static final String PREFIJO_FOTOGRAFIA = "aerolinea.";
+    private static final String EXTENSION_FOTOGRAFIA = ".snap";
+
+    /**
+     * El tamaño del encabezado de cada registro: la longitud del contenido y su CRC32
+     */
+    private static final int TAMANO_ENCABEZADO = 8;
+
+    /**
+     * La carpeta donde están los archivos de la bitácora
+     */
+    private final Path directorio;
+
+    /**
+     * La cantidad de eventos que se pueden acumular antes de sincronizar la bitácora con el disco
+     */
+    private final int registrosPorSincronizacion;
+
+    /**
+     * La cantidad máxima de milisegundos que puede estar un evento sin sincronizarse con el disco
+     */
+    private final long intervaloSincronizacion;
+
+    /**
+     * El tamaño en bytes a partir del cual un segmento se compacta automáticamente. Si es 0, la bitácora sólo se compacta cuando se llama a compactar.
+     */
+    private final long umbralCompactacion;
+
+    /**
+     * El hilo que sincroniza periódicamente la bitácora
+     */
+    private final ScheduledExecutorService sincronizador;
+
+    /**
+     * El hilo que escribe las fotografías de la aerolínea
+     */
+    private final ExecutorService compactador;
+
+    /**
+     * Los eventos que ya se registraron pero todavía no se han escrito en el archivo
+     */
+    private final ByteArrayOutputStream pendientes;
+
+    private int registrosPendientes;
+
+    /**
+     * El objeto que protege al segmento actual. Quien tiene este candado puede escribir en el archivo o cambiar de segmento.
+     */
+    private final Object candadoArchivo;
+
+    /**
+     * El candado del corte de la compactación. Las operaciones de la aerolínea toman el candado de lectura mientras registran y aplican un evento, y la compactación toma el de
+     * escritura mientras toma la fotografía y cambia de segmento.
+     */
+    private final ReadWriteLock candadoCorte;
+
+    private Aerolinea aerolinea;
+    private FileChannel canal;
+    private long numeroSegmento;
+    private long tamanoSegmento;
+    private Future<?> compactacion;
+
+    /**
+     * Si hubo un error escribiendo la bitácora, este es el error. Después de un error ya no se aceptan más eventos.
+     */
+    private IOException falla;
+
+    /**
+     * El error de la última compactación, o null si la última compactación terminó bien. Una compactación fallida no impide registrar eventos, porque el segmento actual sigue
+     * sano; la compactación se vuelve a intentar cuando el segmento crece otra vez en el umbral de compactación.
+     */
+    private volatile IOException fallaCompactacion;
+
+    /**
+     * El tamaño que debe alcanzar el segmento actual para volver a intentar automáticamente una compactación que falló
+     */
+    private long tamanoReintento;
+
+    private boolean cerrada;
+
+    /**
+     * Construye una bitácora que todavía no está abierta. Para abrirla se debe llamar al método recuperar.
+     * @param directorio La carpeta donde están o van a quedar los archivos de la bitácora
+     * @param registrosPorSincronizacion La cantidad de eventos que se pueden acumular antes de sincronizar con el disco. Si es 1, cada evento queda en el disco antes de que
+     *        termine la operación que lo registró.
+     * @param intervaloSincronizacion La cantidad máxima de milisegundos que puede estar un evento sin sincronizarse con el disco
+     * @param umbralCompactacion El tamaño en bytes a partir del cual se compacta automáticamente la bitácora, o 0 si no se quiere compactar automáticamente
+     */
+    public BitacoraAerolinea( String directorio, int registrosPorSincronizacion, long intervaloSincronizacion, long umbralCompactacion )
+    {
+        this.directorio = Paths.get( directorio );
+        this.registrosPorSincronizacion = Math.max( 1, registrosPorSincronizacion );
+        this.intervaloSincronizacion = Math.max( 1, intervaloSincronizacion );
+        this.umbralCompactacion = umbralCompactacion;
+        this.sincronizador = Executors.newSingleThreadScheduledExecutor( crearHilos( "sincronizador-bitacora" ) );
+        this.compactador = Executors.newSingleThreadExecutor( crearHilos( "compactador-bitacora" ) );
+        this.pendientes = new ByteArrayOutputStream( );
+        this.candadoArchivo = new Object( );
+        this.candadoCorte = new ReentrantReadWriteLock( );
+    }
+
+    /**
+     * Carga la última fotografía de la aerolínea, si existe, reproduce los eventos que quedaron en la bitácora después de esa fotografía y deja la bitácora lista para registrar
+     * nuevos eventos. Al terminar, la bitácora queda asociada a la aerolínea.
+     *
+     * Si hay una fotografía, la aerolínea debería estar vacía, porque la fotografía trae toda la información. Si no hay fotografía, la aerolínea ya debe tener los
+     * aeropuertos, rutas y aviones a los que se refieren los eventos.
+     *
+     * Si el último registro del último segmento quedó incompleto (por ejemplo porque el proceso se interrumpió mientras se escribía), ese registro se descarta.
+     * @param aerolinea La aerolínea sobre la que se reproducen los eventos
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo los archivos, o si un segmento que no es el último está dañado
+     * @throws InformacionInconsistenteException Se lanza esta excepción si algún evento no es consistente con la información de la aerolínea
+     */
+    public void recuperar( Aerolinea aerolinea ) throws IOException, InformacionInconsistenteException
+    {
+        Files.createDirectories( directorio );
+        List<Long> fotografias = listarArchivos( PREFIJO_FOTOGRAFIA, EXTENSION_FOTOGRAFIA );
+        long primerSegmento = 0;
+        if( !fotografias.isEmpty( ) )
+        {
+            primerSegmento = fotografias.get( fotografias.size( ) - 1 );
+            new PersistenciaAerolineaBinaria( ).cargarAerolinea( rutaFotografia( primerSegmento ).toString( ), aerolinea );
+        }
+
+        List<Long> segmentos = new ArrayList<Long>( );
+        for( long numero : listarArchivos( PREFIJO_SEGMENTO, EXTENSION_SEGMENTO ) )
+        {
+            if( numero >= primerSegmento )
+                segmentos.add( numero );
+        }
+
+        long tamanoValido = 0;
+        for( int i = 0; i < segmentos.size( ); i++ )
+        {
+            Path segmento = rutaSegmento( segmentos.get( i ) );
+            tamanoValido = reproducirSegmento( segmento, aerolinea );
+            if( tamanoValido < Files.size( segmento ) && i < segmentos.size( ) - 1 )
+                throw new IOException( "El segmento " + segmento + " de la bitácora está dañado" );
+        }
+
+        synchronized( candadoArchivo )
+        {
+            this.aerolinea = aerolinea;
+            numeroSegmento = segmentos.isEmpty( ) ? primerSegmento : segmentos.get( segmentos.size( ) - 1 );
+            canal = FileChannel.open( rutaSegmento( numeroSegmento ), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+            canal.truncate( tamanoValido );
+            canal.position( tamanoValido );
+            tamanoSegmento = tamanoValido;
+        }
+        borrarArchivosAnteriores( primerSegmento );
+        borrarTemporales( );
+
+        sincronizador.scheduleWithFixedDelay( this::sincronizarPeriodicamente, intervaloSincronizacion, intervaloSincronizacion, TimeUnit.MILLISECONDS );
+        aerolinea.setBitacora( this );
+    }
+
+    /**
+     * Registra que se programaron nuevos vuelos
+     * @param vuelos Los vuelos que se programaron
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo la bitácora
+     */
+    public void registrarVuelosProgramados( Collection<Vuelo> vuelos ) throws IOException
+    {
+        List<byte[]> registros = new ArrayList<byte[]>( vuelos.size( ) );
+        for( Vuelo vuelo : vuelos )
+        {
+            ByteArrayOutputStream bytes = iniciarRegistro( VUELO_PROGRAMADO );
+            DataOutputStream out = new DataOutputStream( bytes );
+            escribirCadena( out, vuelo.getFecha( ) );
+            escribirCadena( out, vuelo.getRuta( ).getCodigoRuta( ) );
+            escribirCadena( out, vuelo.getAvion( ).getNombre( ) );
+            registros.add( terminarRegistro( bytes ) );
+        }
+        agregar( registros );
+    }
+
+    /**
+     * Registra la venta de unos tiquetes. Todos los tiquetes deben ser del mismo vuelo y del mismo cliente.
+     * @param tiquetes Los tiquetes que se vendieron
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo la bitácora
+     */
+    public void registrarTiquetesVendidos( Collection<Tiquete> tiquetes ) throws IOException
+    {
+        if( tiquetes.isEmpty( ) )
+            return;
+
+        Tiquete primero = tiquetes.iterator( ).next( );
+        Vuelo vuelo = primero.getVuelo( );
+        Cliente cliente = primero.getCliente( );
+
+        ByteArrayOutputStream bytes = iniciarRegistro( TIQUETES_VENDIDOS );
+        DataOutputStream out = new DataOutputStream( bytes );
+        escribirCadena( out, vuelo.getFecha( ) );
+        escribirCadena( out, vuelo.getRuta( ).getCodigoRuta( ) );
+        if( cliente instanceof ClienteCorporativo )
+        {
+            out.writeByte( TIPO_CORPORATIVO );
+            escribirCadena( out, cliente.getIdentificador( ) );
+            PersistenciaAerolineaBinaria.escribirVarint( out, ( ( ClienteCorporativo )cliente ).getTamanoEmpresa( ) );
+        }
+        else
+        {
+            out.writeByte( TIPO_NATURAL );
+            escribirCadena( out, cliente.getIdentificador( ) );
+        }
+        PersistenciaAerolineaBinaria.escribirVarint( out, tiquetes.size( ) );
+        for( Tiquete tiquete : tiquetes )
+        {
+            escribirCadena( out, tiquete.getCodigo( ) );
+            out.writeInt( tiquete.getTarifa( ) );
+        }
+        agregar( Collections.singletonList( terminarRegistro( bytes ) ) );
+    }
+
+    /**
+     * Registra que se realizaron unos vuelos
+     * @param vuelos Los vuelos que se realizaron
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo la bitácora
+     */
+    public void registrarVuelosRealizados( Collection<Vuelo> vuelos ) throws IOException
+    {
+        List<byte[]> registros = new ArrayList<byte[]>( vuelos.size( ) );
+        for( Vuelo vuelo : vuelos )
+        {
+            ByteArrayOutputStream bytes = iniciarRegistro( VUELO_REALIZADO );
+            DataOutputStream out = new DataOutputStream( bytes );
+            escribirCadena( out, vuelo.getFecha( ) );
+            escribirCadena( out, vuelo.getRuta( ).getCodigoRuta( ) );
+            registros.add( terminarRegistro( bytes ) );
+        }
+        agregar( registros );
+    }
+
+    /**
+     * Indica que empieza una operación de la aerolínea que registra eventos. Mientras no se llame a terminarOperacion, la compactación no toma la fotografía.
+     *
+     * Entre los dos llamados no se debe esperar a que termine una compactación.
+     */
+    public void iniciarOperacion( )
+    {
+        candadoCorte.readLock( ).lock( );
+    }
+
+    /**
+     * Indica que terminó una operación empezada con iniciarOperacion, y que sus eventos ya están registrados y aplicados sobre la aerolínea
+     */
+    public void terminarOperacion( )
+    {
+        candadoCorte.readLock( ).unlock( );
+    }
+
+    /**
+     * Escribe en el archivo todos los eventos pendientes y espera a que queden en el disco.
+     *
+     * Cuando este método termina, todos los eventos registrados antes de llamarlo ya están en el disco, aunque los haya escrito otro hilo.
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo la bitácora
+     */
+    public void sincronizar( ) throws IOException
+    {
+        synchronized( candadoArchivo )
+        {
+            byte[] datos;
+            synchronized( this )
+            {
+                if( falla != null )
+                    throw new IOException( "La bitácora no se pudo escribir", falla );
+                if( registrosPendientes == 0 )
+                    return;
+                datos = pendientes.toByteArray( );
+                pendientes.reset( );
+                registrosPendientes = 0;
+            }
+
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.wrap( datos );
+                while( buffer.hasRemaining( ) )
+                    canal.write( buffer );
+                canal.force( false );
+                tamanoSegmento += datos.length;
+            }
+            catch( IOException e )
+            {
+                synchronized( this )
+                {
+                    falla = e;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Empieza en otro hilo una compactación: se toma una fotografía de la aerolínea, se empieza un segmento nuevo de la bitácora y se escribe la fotografía. Cuando la
+     * fotografía está en el disco, se borran los segmentos y las fotografías anteriores. Si ya hay una compactación en curso, no se empieza otra.
+     *
+     * La fotografía y el cambio de segmento se hacen en un corte consistente: se espera a que terminen las operaciones que están entre iniciarOperacion y terminarOperacion,
+     * y mientras tanto no empiezan otras. Después del corte, la aerolínea se puede seguir modificando mientras se escribe la fotografía.
+     *
+     * Si la compactación falla, el error se reporta en el objeto retornado y en getFallaCompactacion, pero la bitácora sigue aceptando eventos. Sólo un error escribiendo el
+     * segmento actual impide registrar más eventos.
+     * @return Un objeto que permite esperar a que termine la compactación
+     * @throws IOException Se lanza esta excepción si la bitácora está cerrada
+     */
+    public Future<?> compactar( ) throws IOException
+    {
+        synchronized( candadoArchivo )
+        {
+            if( compactacion != null && !compactacion.isDone( ) )
+                return compactacion;
+            synchronized( this )
+            {
+                if( cerrada )
+                    throw new IOException( "La bitácora está cerrada" );
+            }
+
+            compactacion = compactador.submit( ( ) -> {
+                hacerCompactacion( );
+                return null;
+            } );
+            return compactacion;
+        }
+    }
+
+    /**
+     * Retorna el error de la última compactación
+     * @return El error, o null si la última compactación terminó bien o todavía no ha habido ninguna
+     */
+    public IOException getFallaCompactacion( )
+    {
+        return fallaCompactacion;
+    }
+
+    /**
+     * Es el trabajo que hace el hilo compactador. Los errores quedan guardados en el atributo fallaCompactacion.
+     * @throws IOException Se lanza esta excepción si hay problemas cambiando de segmento o escribiendo la fotografía
+     */
+    private void hacerCompactacion( ) throws IOException
+    {
+        try
+        {
+            long siguienteSegmento;
+            EscrituraAtomica.Contenido fotografia;
+            candadoCorte.writeLock( ).lock( );
+            try
+            {
+                synchronized( candadoArchivo )
+                {
+                    sincronizar( );
+                    fotografia = PersistenciaAerolineaBinaria.prepararFotografia( aerolinea );
+                    siguienteSegmento = numeroSegmento + 1;
+                    FileChannel nuevoCanal = FileChannel.open( rutaSegmento( siguienteSegmento ), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+                    // El segmento nuevo debe quedar en la carpeta antes de que se sincronice en él cualquier evento
+                    EscrituraAtomica.sincronizarCarpeta( directorio );
+                    canal.close( );
+                    canal = nuevoCanal;
+                    numeroSegmento = siguienteSegmento;
+                    tamanoSegmento = 0;
+                    tamanoReintento = 0;
+                }
+            }
+            finally
+            {
+                candadoCorte.writeLock( ).unlock( );
+            }
+
+            // Si la fotografía no se alcanza a escribir, los segmentos anteriores se conservan y la recuperación los sigue usando
+            EscrituraAtomica.escribir( rutaFotografia( siguienteSegmento ), fotografia );
+            borrarArchivosAnteriores( siguienteSegmento );
+            fallaCompactacion = null;
+        }
+        catch( IOException | RuntimeException e )
+        {
+            fallaCompactacion = e instanceof IOException ? ( IOException )e : new IOException( "No se pudo compactar la bitácora", e );
+            synchronized( candadoArchivo )
+            {
+                tamanoReintento = tamanoSegmento + umbralCompactacion;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sincroniza los eventos pendientes, espera a que termine la compactación que esté en curso y cierra los archivos de la bitácora
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo la bitácora
+     */
+    @Override
+    public void close( ) throws IOException
+    {
+        try
+        {
+            sincronizar( );
+        }
+        finally
+        {
+            synchronized( this )
+            {
+                cerrada = true;
+            }
+            sincronizador.shutdown( );
+            compactador.shutdown( );
+            try
+            {
+                compactador.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+            }
+            synchronized( candadoArchivo )
+            {
+                if( canal != null )
+                    canal.close( );
+            }
+        }
+    }
+
+    // ************************************************************************************
+    //
+    // Escritura de los registros
+    //
+    // ************************************************************************************
+
+    /**
+     * Agrega unos registros completos a los eventos pendientes. Si ya hay suficientes eventos pendientes, sincroniza la bitácora, y si el segmento ya es muy grande, lo compacta.
+     * @param registros Los registros que se quieren agregar
+     * @throws IOException Se lanza esta excepción si la bitácora está cerrada o si hay problemas escribiéndola
+     */
+    private void agregar( List<byte[]> registros ) throws IOException
+    {
+        boolean sincronizarAhora;
+        synchronized( this )
+        {
+            if( cerrada )
+                throw new IOException( "La bitácora está cerrada" );
+            if( falla != null )
+                throw new IOException( "La bitácora no se pudo escribir", falla );
+            for( byte[] registro : registros )
+                pendientes.writeBytes( registro );
+            registrosPendientes += registros.size( );
+            sincronizarAhora = registrosPendientes >= registrosPorSincronizacion;
+        }
+        if( sincronizarAhora )
+        {
+            sincronizar( );
+            revisarCompactacion( );
+        }
+    }
+
+    /**
+     * Es el trabajo que hace periódicamente el hilo sincronizador. Los errores quedan guardados en el atributo falla y se reportan en el siguiente evento que se registre.
+     */
+    private void sincronizarPeriodicamente( )
+    {
+        try
+        {
+            sincronizar( );
+            revisarCompactacion( );
+        }
+        catch( IOException e )
+        {
+            synchronized( this )
+            {
+                if( falla == null )
+                    falla = e;
+            }
+        }
+    }
+
+    /**
+     * Empieza una compactación si el segmento actual superó el umbral de compactación. La compactación se hace en el hilo compactador, porque quien llama este método puede
+     * estar en medio de una operación de la aerolínea.
+     * @throws IOException Se lanza esta excepción si la bitácora está cerrada
+     */
+    private void revisarCompactacion( ) throws IOException
+    {
+        boolean compactarAhora;
+        synchronized( candadoArchivo )
+        {
+            compactarAhora = umbralCompactacion > 0 && tamanoSegmento >= Math.max( umbralCompactacion, tamanoReintento ) && ( compactacion == null || compactacion.isDone( ) );
+        }
+        if( compactarAhora )
+            compactar( );
+    }
+
+    /**
+     * Crea el flujo donde se va a escribir un registro, dejando espacio para el encabezado
+     * @param tipo El tipo del evento
+     * @return El flujo donde se debe escribir el contenido del registro
+     */
+    private static ByteArrayOutputStream iniciarRegistro( byte tipo )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+        bytes.writeBytes( new byte[TAMANO_ENCABEZADO] );
+        bytes.write( tipo );
+        return bytes;
+    }
+
+    /**
+     * Completa el encabezado de un registro con la longitud y el CRC32 de su contenido
+     * @param bytes El flujo donde se escribió el registro
+     * @return Los bytes del registro completo
+     */
+    private static byte[] terminarRegistro( ByteArrayOutputStream bytes )
+    {
+        byte[] registro = bytes.toByteArray( );
+        CRC32 crc = new CRC32( );
+        crc.update( registro, TAMANO_ENCABEZADO, registro.length - TAMANO_ENCABEZADO );
+        ByteBuffer.wrap( registro ).putInt( registro.length - TAMANO_ENCABEZADO ).putInt( ( int )crc.getValue( ) );
+        return registro;
+    }
+
+    private static void escribirCadena( DataOutputStream out, String cadena ) throws IOException
+    {
+        byte[] bytes = cadena.getBytes( StandardCharsets.UTF_8 );
+        PersistenciaAerolineaBinaria.escribirVarint( out, bytes.length );
+        out.write( bytes );
+    }
+
+    // ************************************************************************************
+    //
+    // Reproducción de los registros
+    //
+    // ************************************************************************************
+
+    /**
+     * Reproduce sobre la aerolínea todos los registros válidos de un segmento
+     * @param segmento La ruta del segmento
+     * @param aerolinea La aerolínea sobre la que se reproducen los eventos
+     * @return La cantidad de bytes del segmento que tienen registros válidos. Si es menor que el tamaño del archivo, el resto del archivo está dañado o incompleto.
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo el segmento
+     * @throws InformacionInconsistenteException Se lanza esta excepción si algún evento no es consistente con la información de la aerolínea
+     */
+    private static long reproducirSegmento( Path segmento, Aerolinea aerolinea ) throws IOException, InformacionInconsistenteException
+    {
+        MappedByteBuffer buffer;
+        try( FileChannel canalLectura = FileChannel.open( segmento, StandardOpenOption.READ ) )
+        {
+            buffer = canalLectura.map( FileChannel.MapMode.READ_ONLY, 0, canalLectura.size( ) );
+        }
+
+        CRC32 crc = new CRC32( );
+        while( buffer.remaining( ) >= TAMANO_ENCABEZADO )
+        {
+            int inicio = buffer.position( );
+            int longitud = buffer.getInt( );
+            int valorCrc = buffer.getInt( );
+            if( longitud <= 0 || longitud > buffer.remaining( ) )
+                return inicio;
+
+            ByteBuffer contenido = buffer.slice( ).limit( longitud );
+            crc.reset( );
+            crc.update( contenido.duplicate( ) );
+            if( ( int )crc.getValue( ) != valorCrc )
+                return inicio;
+
+            reproducirRegistro( contenido, aerolinea );
+            buffer.position( inicio + TAMANO_ENCABEZADO + longitud );
+        }
+        return buffer.position( );
+    }
+
+    /**
+     * Aplica un evento sobre la aerolínea, ignorando los vuelos y tiquetes que ya existan
+     * @param registro El contenido del registro
+     * @param aerolinea La aerolínea sobre la que se aplica el evento
+     * @throws InformacionInconsistenteException Se lanza esta excepción si el evento no es consistente con la información de la aerolínea
+     */
+    private static void reproducirRegistro( ByteBuffer registro, Aerolinea aerolinea ) throws InformacionInconsistenteException
+    {
+        byte tipo = registro.get( );
+        String fecha = leerCadena( registro );
+        String codigoRuta = leerCadena( registro );
+        if( tipo == VUELO_PROGRAMADO )
+        {
+            String nombreAvion = leerCadena( registro );
+            if( aerolinea.getVuelo( codigoRuta, fecha ) == null )
+            {
+                try
+                {
+                    aerolinea.programarVuelo( fecha, codigoRuta, nombreAvion );
+                }
+                catch( Exception e )
+                {
+                    throw new InformacionInconsistenteException( e.getMessage( ) );
+                }
+            }
+            return;
+        }
+
+        Vuelo vuelo = aerolinea.getVuelo( codigoRuta, fecha );
+        if( vuelo == null )
+            throw new InformacionInconsistenteTiqueteException( "vuelo", codigoRuta + " " + fecha );
+
+        if( tipo == VUELO_REALIZADO )
+            vuelo.realizar( );
+        else if( tipo == TIQUETES_VENDIDOS )
+        {
+            byte tipoCliente = registro.get( );
+            String identificador = leerCadena( registro );
+            Cliente cliente = aerolinea.getCliente( identificador );
+            if( tipoCliente == TIPO_CORPORATIVO )
+            {
+                int tamano = PersistenciaAerolineaBinaria.leerVarint( registro );
+                if( cliente == null )
+                    cliente = new ClienteCorporativo( identificador, tamano );
+            }
+            else if( cliente == null )
+                cliente = new ClienteNatural( identificador );
+            if( !aerolinea.existeCliente( identificador ) )
+                aerolinea.agregarCliente( cliente );
+
+            int cantidad = PersistenciaAerolineaBinaria.leerVarint( registro );
+            for( int i = 0; i < cantidad; i++ )
+            {
+                String codigo = leerCadena( registro );
+                int tarifa = registro.getInt( );
+                if( GeneradorTiquetes.validarTiquete( codigo ) )
+                    continue;
+
+                Tiquete tiquete = new Tiquete( codigo, vuelo, cliente, tarifa );
+                GeneradorTiquetes.registrarTiquete( tiquete );
+                vuelo.agregarTiquete( tiquete );
+                cliente.agregarTiquete( tiquete );
+            }
+        }
+        else
+            throw new InformacionInconsistenteException( "La bitácora tiene un evento de tipo desconocido: " + tipo );
+    }
+
+    private static String leerCadena( ByteBuffer buffer )
+    {
+        byte[] bytes = new byte[PersistenciaAerolineaBinaria.leerVarint( buffer )];
+        buffer.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    // ************************************************************************************
+    //
+    // Manejo de los archivos
+    //
+    // ************************************************************************************
+
+    private Path rutaSegmento( long numero )
+    {
+        return directorio.resolve( PREFIJO_SEGMENTO + numero + EXTENSION_SEGMENTO );
+    }
+
+    private Path rutaFotografia( long numero )
+    {
+        return directorio.resolve( PREFIJO_FOTOGRAFIA + numero + EXTENSION_FOTOGRAFIA );
+    }
+
+    /**
+     * Busca en la carpeta de la bitácora los archivos de un tipo
+     * @param prefijo El prefijo del nombre de los archivos
+     * @param extension La extensión de los archivos
+     * @return Los números de los archivos encontrados, ordenados de menor a mayor
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo la carpeta
+     */
+    private List<Long> listarArchivos( String prefijo, String extension ) throws IOException
+    {
+        List<Long> numeros = new ArrayList<Long>( );
+        try( DirectoryStream<Path> archivos = Files.newDirectoryStream( directorio, prefijo + "*" + extension ) )
+        {
+            for( Path archivo : archivos )
+            {
+                String nombre = archivo.getFileName( ).toString( );
+                try
+                {
+                    numeros.add( Long.parseLong( nombre.substring( prefijo.length( ), nombre.length( ) - extension.length( ) ) ) );
+                }
+                catch( NumberFormatException e )
+                {
+                    // No es un archivo de la bitácora
+                }
+            }
+        }
+        Collections.sort( numeros );
+        return numeros;
+    }
+
+    /**
+     * Borra los segmentos y las fotografías que ya están incluidos en la fotografía con el número dado
+     * @param numero El número de la fotografía más reciente
+     * @throws IOException Se lanza esta excepción si hay problemas borrando los archivos
+     */
+    private void borrarArchivosAnteriores( long numero ) throws IOException
+    {
+        for( long segmento : listarArchivos( PREFIJO_SEGMENTO, EXTENSION_SEGMENTO ) )
+        {
+            if( segmento < numero )
+                Files.deleteIfExists( rutaSegmento( segmento ) );
+        }
+        for( long fotografia : listarArchivos( PREFIJO_FOTOGRAFIA, EXTENSION_FOTOGRAFIA ) )
+        {
+            if( fotografia < numero )
+                Files.deleteIfExists( rutaFotografia( fotografia ) );
+        }
+    }
+
+    /**
+     * Borra los archivos temporales de fotografías que quedaron en la carpeta porque el proceso se interrumpió mientras se escribían
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo la carpeta o borrando los archivos
+     */
+    private void borrarTemporales( ) throws IOException
+    {
+        try( DirectoryStream<Path> temporales = Files.newDirectoryStream( directorio, "." + PREFIJO_FOTOGRAFIA + "*" + EXTENSION_FOTOGRAFIA + ".*.tmp" ) )
+        {
+            for( Path temporal : temporales )
+                Files.deleteIfExists( temporal );
+        }
+    }
+
+    /**
+     * Crea los hilos de la bitácora. Los hilos no impiden que el programa termine.
+     * @param nombre El nombre de los hilos
+     * @return La fábrica de hilos
+     */
+    private static ThreadFactory crearHilos( String nombre )
+    {
+        return tarea -> {
+            Thread hilo = new Thread( tarea, nombre );
+            hilo.setDaemon( true );
+            return hilo;
+        };
+    }
+}
@@ -10,24 +10,46 @@ public class CentralPersistencia
      */
     public static final String JSON = "JSON";
 
+    /**
+     * La cadena utilizada para identificar a los archivos en formato JSON que se cargan registro por registro, sin construir el documento completo en memoria
+     */
+    public static final String JSON_STREAMING = "JSONStreaming";
+
+    /**
+     * La cadena utilizada para identificar a los archivos en formato JSON que se escriben sin indentación ni saltos de línea
+     */
+    public static final String JSON_COMPACTO = "JSONCompacto";
+
+    /**
+     * La cadena utilizada para identificar a los archivos en formato JSON que se salvan como un archivo base y una serie de archivos con los cambios
+     */
+    public static final String JSON_DELTA = "JSONDelta";
+
     /**
      * La cadena utilizada para identificar a los archivos en texto plano
      */
     public static final String PLAIN = "PlainText";
 
+    /**
+     * La cadena utilizada para identificar a los archivos en el formato binario compacto
+     */
+    public static final String BINARIO = "Binario";
+
     /**
      * Este método retorna una nueva instancia de una clase capaz de cargar y salvar los datos de una aerolínea.
      * 
-     * Las clases concretas que se pueden retornar son PersistenciaAerolineaJson y PersistenciaAerolineaPlaintext
+     * Las clases concretas que se pueden retornar son PersistenciaAerolineaPlaintext y PersistenciaAerolineaBinaria
      * 
      * @param tipoArchivo El tipo del archivo que será usado para cargar la información de la aerolínea
      * @return El objeto que debería usarse para cargar y salvar la información
      * @throws TipoInvalidoException Se lanza esta excepción si se utiliza un tipo de archivo que no es válido
      */
-    public static PersistenciaAerolineaPlaintext getPersistenciaAerolinea( String tipoArchivo ) throws TipoInvalidoException
+    public static IPersistenciaAerolinea getPersistenciaAerolinea( String tipoArchivo ) throws TipoInvalidoException
     {
         if (PLAIN.equals(tipoArchivo)) {
             return new PersistenciaAerolineaPlaintext();
+        } else if (BINARIO.equals(tipoArchivo)) {
+            return new PersistenciaAerolineaBinaria();
         } else {
             throw new TipoInvalidoException(tipoArchivo);
         }
@@ -36,7 +58,7 @@ public class CentralPersistencia
     /**
      * Este método retorna una nueva instancia de una clase capaz de cargar y salvar los datos de los tiquetes de una aerolínea.
      * 
-     * La única clase concreta que se puede retornar es PersistenciaTiquetesJson
+     * Las clases concretas que se pueden retornar son PersistenciaTiquetesJson y PersistenciaTiquetesJsonStreaming, que usan el mismo formato de archivo. Para el tipo JSON_COMPACTO se retorna un PersistenciaTiquetesJsonStreaming que escribe en modo compacto, y para el tipo JSON_DELTA se retorna un PersistenciaTiquetesDelta.
      * 
      * @param tipoArchivo El tipo del archivo que será usado para cargar la información de los tiquetes
      * @return  El objeto que debería usarse para cargar y salvar la información
@@ -46,6 +68,12 @@ public class CentralPersistencia
     {
         if (JSON.equals(tipoArchivo)) {
             return new PersistenciaTiquetesJson();
+        } else if (JSON_STREAMING.equals(tipoArchivo)) {
+            return new PersistenciaTiquetesJsonStreaming();
+        } else if (JSON_COMPACTO.equals(tipoArchivo)) {
+            return new PersistenciaTiquetesJsonStreaming(true);
+        } else if (JSON_DELTA.equals(tipoArchivo)) {
+            return new PersistenciaTiquetesDelta();
         } else {
             throw new TipoInvalidoException(tipoArchivo);
         }
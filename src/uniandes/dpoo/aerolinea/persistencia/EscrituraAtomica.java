@@ -0,0 +1,87 @@
+package uniandes.dpoo.aerolinea.persistencia;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Esta clase se encarga de escribir archivos de forma que nunca queden a medio escribir.
+ * 
+ * El contenido se escribe primero en un archivo temporal en la misma carpeta del archivo de destino. Cuando el contenido está completo y en el disco, el archivo temporal
+ * reemplaza al de destino con una sola operación de renombrado. Si el proceso se interrumpe antes, el archivo de destino conserva su versión anterior. Después del renombrado
+ * se sincroniza la carpeta, para que el renombrado también quede en el disco.
+ */
+class EscrituraAtomica
+{
+    /**
+     * El tamaño del buffer que se usa para escribir
+     */
+    private static final int TAMANO_BUFFER = 1 << 16;
+
+    /**
+     * La operación que produce el contenido de un archivo
+     */
+    interface Contenido
+    {
+        void escribir( OutputStream salida ) throws IOException;
+    }
+
+    /**
+     * Escribe un archivo completo y lo publica con un renombrado atómico
+     * @param destino La ruta del archivo que se quiere escribir
+     * @param contenido La operación que escribe el contenido del archivo
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo el archivo. En ese caso el archivo de destino no se modifica.
+     */
+    static void escribir( Path destino, Contenido contenido ) throws IOException
+    {
+        Path absoluto = destino.toAbsolutePath( );
+        Path temporal = absoluto.resolveSibling( "." + absoluto.getFileName( ) + "." + System.nanoTime( ) + ".tmp" );
+        try
+        {
+            try( FileChannel canal = FileChannel.open( temporal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE ) )
+            {
+                OutputStream salida = new BufferedOutputStream( Channels.newOutputStream( canal ), TAMANO_BUFFER );
+                contenido.escribir( salida );
+                salida.flush( );
+                canal.force( true );
+            }
+            try
+            {
+                Files.move( temporal, absoluto, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch( AtomicMoveNotSupportedException e )
+            {
+                Files.move( temporal, absoluto, StandardCopyOption.REPLACE_EXISTING );
+            }
+            sincronizarCarpeta( absoluto.getParent( ) );
+        }
+        finally
+        {
+            Files.deleteIfExists( temporal );
+        }
+    }
+
+    /**
+     * Espera a que los cambios en las entradas de una carpeta (por ejemplo un renombrado) queden en el disco. En los sistemas donde una carpeta no se puede abrir o
+     * sincronizar, como Windows, no hace nada.
+     * @param carpeta La carpeta
+     */
+    static void sincronizarCarpeta( Path carpeta )
+    {
+        try( FileChannel canal = FileChannel.open( carpeta, StandardOpenOption.READ ) )
+        {
+            canal.force( true );
+        }
+        catch( IOException | UnsupportedOperationException e )
+        {
+            // El sistema no permite sincronizar carpetas
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package uniandes.dpoo.aerolinea.persistencia;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uniandes.dpoo.aerolinea.exceptions.AeropuertoDuplicadoException;
+import uniandes.dpoo.aerolinea.exceptions.ClienteRepetidoException;
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteException;
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteTiqueteException;
+import uniandes.dpoo.aerolinea.exceptions.ProgramacionInvalidaException;
+import uniandes.dpoo.aerolinea.modelo.Aerolinea;
+import uniandes.dpoo.aerolinea.modelo.Aeropuerto;
+import uniandes.dpoo.aerolinea.modelo.Avion;
+import uniandes.dpoo.aerolinea.modelo.ProgramacionVuelo;
+import uniandes.dpoo.aerolinea.modelo.Ruta;
+import uniandes.dpoo.aerolinea.modelo.Vuelo;
+import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
+import uniandes.dpoo.aerolinea.modelo.cliente.ClienteCorporativo;
+import uniandes.dpoo.aerolinea.modelo.cliente.ClienteNatural;
+import uniandes.dpoo.aerolinea.tiquetes.GeneradorTiquetes;
+import uniandes.dpoo.aerolinea.tiquetes.RegistroCodigos;
+import uniandes.dpoo.aerolinea.tiquetes.Tiquete;
+
+/**
+ * Esta clase salva y carga una fotografía completa de la aerolínea (aeropuertos, rutas, aviones, vuelos, clientes y tiquetes) en un formato binario compacto.
+ *
+ * El archivo empieza con una tabla con todas las cadenas, sin repetir, y el resto del archivo se refiere a las cadenas por su posición en la tabla. Los números enteros se
+ * escriben con una cantidad variable de bytes (7 bits por byte), excepto en los tiquetes, que como son la mayoría de los registros se escriben con un tamaño fijo. Para cargar
+ * la información, el archivo se proyecta en memoria con un FileChannel en lugar de leerse con un flujo.
+ *
+ * El orden de las secciones del archivo es: tabla de cadenas, aeropuertos, rutas, aviones, vuelos, clientes y tiquetes.
+ *
+ * Desde la versión 2, cada vuelo tiene además un byte que indica si ya se realizó. Los archivos de la versión 1 se pueden seguir cargando, y sus vuelos quedan sin realizar.
+ */
+public class PersistenciaAerolineaBinaria implements IPersistenciaAerolinea
+{
+    /**
+     * El número con el que empiezan todos los archivos de este formato ('DPOA')
+     */
+    private static final int ENCABEZADO = 0x44504F41;
+
+    /**
+     * La versión del formato
+     */
+    private static final byte VERSION = 2;
+
+    /**
+     * La primera versión del formato, en la que los vuelos no indicaban si ya se habían realizado
+     */
+    private static final byte VERSION_SIN_REALIZADOS = 1;
+
+    private static final byte TIPO_NATURAL = 0;
+    private static final byte TIPO_CORPORATIVO = 1;
+
+    /**
+     * Salva en un archivo toda la información de la aerolínea, incluyendo sus clientes y tiquetes
+     * @param archivo La ruta al archivo donde debe quedar almacenada la información
+     * @param aerolinea La aerolínea que tiene la información que se quiere almacenar
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo el archivo
+     */
+    @Override
+    public void salvarAerolinea( String archivo, Aerolinea aerolinea ) throws IOException
+    {
+        EscrituraAtomica.escribir( Paths.get( archivo ), prepararFotografia( aerolinea ) );
+    }
+
+    /**
+     * Toma la información que hay en este momento en la aerolínea y prepara la operación que la escribe en el formato binario.
+     * 
+     * Todos los recorridos sobre las colecciones de la aerolínea se hacen dentro de este método, así que la operación que se retorna se puede ejecutar después, por ejemplo
+     * en otro hilo, sin volver a consultar la aerolínea.
+     * @param aerolinea La aerolínea que tiene la información que se quiere almacenar
+     * @return La operación que escribe el contenido del archivo
+     */
+    static EscrituraAtomica.Contenido prepararFotografia( Aerolinea aerolinea )
+    {
+        List<Aeropuerto> aeropuertos = new ArrayList<Aeropuerto>( aerolinea.getAeropuertos( ) );
+        List<Ruta> rutas = new ArrayList<Ruta>( aerolinea.getRutas( ) );
+        List<Avion> aviones = new ArrayList<Avion>( aerolinea.getAviones( ) );
+        List<Vuelo> vuelos = new ArrayList<Vuelo>( aerolinea.getVuelos( ) );
+        List<Cliente> clientes = new ArrayList<Cliente>( aerolinea.getClientes( ) );
+        // Los tiquetes se recorren dos veces y se escribe cuántos son, así que se necesita una copia que no cambie mientras se escribe
+        List<Tiquete> tiquetes = new ArrayList<Tiquete>( aerolinea.getTiquetes( ) );
+
+        Map<Aeropuerto, Integer> posicionesAeropuertos = calcularPosiciones( aeropuertos );
+        Map<Ruta, Integer> posicionesRutas = calcularPosiciones( rutas );
+        Map<Avion, Integer> posicionesAviones = calcularPosiciones( aviones );
+        Map<Vuelo, Integer> posicionesVuelos = calcularPosiciones( vuelos );
+        Map<Cliente, Integer> posicionesClientes = calcularPosiciones( clientes );
+
+        // Construir la tabla de cadenas
+        Map<String, Integer> cadenas = new LinkedHashMap<String, Integer>( );
+        for( Aeropuerto aeropuerto : aeropuertos )
+        {
+            agregarCadena( cadenas, aeropuerto.getCodigo( ) );
+            agregarCadena( cadenas, aeropuerto.getNombre( ) );
+        }
+        for( Ruta ruta : rutas )
+        {
+            agregarCadena( cadenas, ruta.getCodigoRuta( ) );
+            agregarCadena( cadenas, ruta.getHoraSalida( ) );
+            agregarCadena( cadenas, ruta.getHoraLlegada( ) );
+        }
+        for( Avion avion : aviones )
+            agregarCadena( cadenas, avion.getNombre( ) );
+        for( Vuelo vuelo : vuelos )
+            agregarCadena( cadenas, vuelo.getFecha( ) );
+        for( Cliente cliente : clientes )
+            agregarCadena( cadenas, cliente.getIdentificador( ) );
+        for( Tiquete tiquete : tiquetes )
+        {
+            if( RegistroCodigos.convertir( tiquete.getCodigo( ) ) < 0 )
+                agregarCadena( cadenas, tiquete.getCodigo( ) );
+        }
+
+        return salida -> {
+            DataOutputStream out = new DataOutputStream( salida );
+            out.writeInt( ENCABEZADO );
+            out.writeByte( VERSION );
+
+            escribirVarint( out, cadenas.size( ) );
+            for( String cadena : cadenas.keySet( ) )
+            {
+                byte[] bytes = cadena.getBytes( StandardCharsets.UTF_8 );
+                escribirVarint( out, bytes.length );
+                out.write( bytes );
+            }
+
+            escribirVarint( out, aeropuertos.size( ) );
+            for( Aeropuerto aeropuerto : aeropuertos )
+            {
+                escribirVarint( out, cadenas.get( aeropuerto.getCodigo( ) ) );
+                escribirVarint( out, cadenas.get( aeropuerto.getNombre( ) ) );
+                out.writeDouble( aeropuerto.getLatitud( ) );
+                out.writeDouble( aeropuerto.getLongitud( ) );
+            }
+
+            escribirVarint( out, rutas.size( ) );
+            for( Ruta ruta : rutas )
+            {
+                escribirVarint( out, cadenas.get( ruta.getCodigoRuta( ) ) );
+                escribirVarint( out, posicionesAeropuertos.get( ruta.getOrigen( ) ) );
+                escribirVarint( out, posicionesAeropuertos.get( ruta.getDestino( ) ) );
+                escribirVarint( out, cadenas.get( ruta.getHoraSalida( ) ) );
+                escribirVarint( out, cadenas.get( ruta.getHoraLlegada( ) ) );
+            }
+
+            escribirVarint( out, aviones.size( ) );
+            for( Avion avion : aviones )
+            {
+                escribirVarint( out, cadenas.get( avion.getNombre( ) ) );
+                escribirVarint( out, avion.getCapacidad( ) );
+            }
+
+            escribirVarint( out, vuelos.size( ) );
+            for( Vuelo vuelo : vuelos )
+            {
+                escribirVarint( out, posicionesRutas.get( vuelo.getRuta( ) ) );
+                escribirVarint( out, cadenas.get( vuelo.getFecha( ) ) );
+                escribirVarint( out, posicionesAviones.get( vuelo.getAvion( ) ) );
+                out.writeBoolean( vuelo.isRealizado( ) );
+            }
+
+            escribirVarint( out, clientes.size( ) );
+            for( Cliente cliente : clientes )
+            {
+                if( cliente instanceof ClienteCorporativo )
+                {
+                    out.writeByte( TIPO_CORPORATIVO );
+                    escribirVarint( out, cadenas.get( cliente.getIdentificador( ) ) );
+                    escribirVarint( out, ( ( ClienteCorporativo )cliente ).getTamanoEmpresa( ) );
+                }
+                else
+                {
+                    out.writeByte( TIPO_NATURAL );
+                    escribirVarint( out, cadenas.get( cliente.getIdentificador( ) ) );
+                }
+            }
+
+            // Los tiquetes se escriben como registros de tamaño fijo
+            out.writeInt( tiquetes.size( ) );
+            for( Tiquete tiquete : tiquetes )
+            {
+                int codigo = RegistroCodigos.convertir( tiquete.getCodigo( ) );
+                out.writeInt( codigo >= 0 ? codigo : -1 - cadenas.get( tiquete.getCodigo( ) ) );
+                out.writeInt( posicionesVuelos.get( tiquete.getVuelo( ) ) );
+                out.writeInt( posicionesClientes.get( tiquete.getCliente( ) ) );
+                out.writeInt( tiquete.getTarifa( ) );
+                out.writeBoolean( tiquete.isUsado( ) );
+            }
+            out.flush( );
+        };
+    }
+
+    /**
+     * Carga toda la información de la aerolínea, incluyendo sus clientes y tiquetes, a partir de un archivo binario
+     * @param archivo La ruta al archivo que contiene la información que se va a cargar
+     * @param aerolinea La aerolínea dentro de la cual debe almacenarse la información
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo el archivo o si el archivo no tiene el formato esperado, por ejemplo porque está incompleto
+     * @throws InformacionInconsistenteException Se lanza esta excepción si hay información inconsistente dentro del archivo, o entre el archivo y el estado de la aerolínea
+     */
+    @Override
+    public void cargarAerolinea( String archivo, Aerolinea aerolinea ) throws IOException, InformacionInconsistenteException
+    {
+        MappedByteBuffer buffer;
+        try( FileChannel canal = FileChannel.open( Paths.get( archivo ), StandardOpenOption.READ ) )
+        {
+            buffer = canal.map( FileChannel.MapMode.READ_ONLY, 0, canal.size( ) );
+        }
+
+        try
+        {
+            cargarAerolinea( buffer, archivo, aerolinea );
+        }
+        catch( BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e )
+        {
+            // Un archivo incompleto o dañado hace que se lea más allá del final o que una posición o una cantidad no tengan sentido
+            throw new IOException( "El archivo " + archivo + " está incompleto o dañado", e );
+        }
+    }
+
+    /**
+     * Carga la información de la aerolínea a partir del contenido de un archivo binario
+     * @param buffer El contenido del archivo
+     * @param archivo La ruta al archivo, para los mensajes de error
+     * @param aerolinea La aerolínea dentro de la cual debe almacenarse la información
+     * @throws IOException Se lanza esta excepción si el archivo no tiene el formato esperado
+     * @throws InformacionInconsistenteException Se lanza esta excepción si hay información inconsistente dentro del archivo, o entre el archivo y el estado de la aerolínea
+     */
+    private void cargarAerolinea( ByteBuffer buffer, String archivo, Aerolinea aerolinea ) throws IOException, InformacionInconsistenteException
+    {
+        if( buffer.getInt( ) != ENCABEZADO )
+            throw new IOException( "El archivo " + archivo + " no tiene el formato binario de la aerolínea" );
+        byte version = buffer.get( );
+        if( version != VERSION && version != VERSION_SIN_REALIZADOS )
+            throw new IOException( "El archivo " + archivo + " no tiene el formato binario de la aerolínea" );
+
+        String[] cadenas = new String[leerVarint( buffer )];
+        for( int i = 0; i < cadenas.length; i++ )
+        {
+            byte[] bytes = new byte[leerVarint( buffer )];
+            buffer.get( bytes );
+            cadenas[ i ] = new String( bytes, StandardCharsets.UTF_8 );
+        }
+
+        Aeropuerto[] aeropuertos = new Aeropuerto[leerVarint( buffer )];
+        for( int i = 0; i < aeropuertos.length; i++ )
+        {
+            String codigo = cadenas[ leerVarint( buffer ) ];
+            String nombre = cadenas[ leerVarint( buffer ) ];
+            double latitud = buffer.getDouble( );
+            double longitud = buffer.getDouble( );
+            try
+            {
+                aeropuertos[ i ] = new Aeropuerto( codigo, nombre, latitud, longitud );
+            }
+            catch( AeropuertoDuplicadoException e )
+            {
+                throw new InformacionInconsistenteException( e.getMessage( ) );
+            }
+        }
+
+        Ruta[] rutas = new Ruta[leerVarint( buffer )];
+        for( int i = 0; i < rutas.length; i++ )
+        {
+            String codigo = cadenas[ leerVarint( buffer ) ];
+            Aeropuerto origen = aeropuertos[ leerVarint( buffer ) ];
+            Aeropuerto destino = aeropuertos[ leerVarint( buffer ) ];
+            String horaSalida = cadenas[ leerVarint( buffer ) ];
+            String horaLlegada = cadenas[ leerVarint( buffer ) ];
+            rutas[ i ] = new Ruta( codigo, origen, destino, horaSalida, horaLlegada );
+            aerolinea.agregarRuta( rutas[ i ] );
+        }
+
+        Avion[] aviones = new Avion[leerVarint( buffer )];
+        for( int i = 0; i < aviones.length; i++ )
+        {
+            String nombre = cadenas[ leerVarint( buffer ) ];
+            aviones[ i ] = new Avion( nombre, leerVarint( buffer ) );
+            aerolinea.agregarAvion( aviones[ i ] );
+        }
+
+        List<ProgramacionVuelo> programacion = new ArrayList<ProgramacionVuelo>( );
+        int numVuelos = leerVarint( buffer );
+        boolean[] realizados = new boolean[numVuelos];
+        for( int i = 0; i < numVuelos; i++ )
+        {
+            Ruta ruta = rutas[ leerVarint( buffer ) ];
+            String fecha = cadenas[ leerVarint( buffer ) ];
+            Avion avion = aviones[ leerVarint( buffer ) ];
+            if( version != VERSION_SIN_REALIZADOS )
+                realizados[ i ] = buffer.get( ) != 0;
+            programacion.add( new ProgramacionVuelo( fecha, ruta.getCodigoRuta( ), avion.getNombre( ) ) );
+        }
+        try
+        {
+            aerolinea.programarVuelos( programacion );
+        }
+        catch( ProgramacionInvalidaException e )
+        {
+            throw new InformacionInconsistenteException( e.getMessage( ) + ": " + e.getErrores( ) );
+        }
+        Vuelo[] vuelos = new Vuelo[numVuelos];
+        for( int i = 0; i < numVuelos; i++ )
+        {
+            ProgramacionVuelo solicitud = programacion.get( i );
+            vuelos[ i ] = aerolinea.getVuelo( solicitud.getCodigoRuta( ), solicitud.getFecha( ) );
+        }
+
+        Cliente[] clientes = new Cliente[leerVarint( buffer )];
+        for( int i = 0; i < clientes.length; i++ )
+        {
+            byte tipo = buffer.get( );
+            String identificador = cadenas[ leerVarint( buffer ) ];
+            if( tipo == TIPO_CORPORATIVO )
+                clientes[ i ] = new ClienteCorporativo( identificador, leerVarint( buffer ) );
+            else
+                clientes[ i ] = new ClienteNatural( identificador );
+
+            if( aerolinea.existeCliente( identificador ) )
+                throw new ClienteRepetidoException( clientes[ i ].getTipoCliente( ), identificador );
+            aerolinea.agregarCliente( clientes[ i ] );
+        }
+
+        int numTiquetes = buffer.getInt( );
+        for( int i = 0; i < numTiquetes; i++ )
+        {
+            int codigo = buffer.getInt( );
+            Vuelo vuelo = vuelos[ buffer.getInt( ) ];
+            Cliente cliente = clientes[ buffer.getInt( ) ];
+            int tarifa = buffer.getInt( );
+            boolean usado = buffer.get( ) != 0;
+
+            String codigoTiquete = codigo >= 0 ? RegistroCodigos.formatear( codigo ) : cadenas[ -1 - codigo ];
+            if( GeneradorTiquetes.validarTiquete( codigoTiquete ) )
+                throw new InformacionInconsistenteTiqueteException( "tiquete", codigoTiquete, false );
+
+            Tiquete tiquete = new Tiquete( codigoTiquete, vuelo, cliente, tarifa );
+            if( usado )
+                tiquete.marcarComoUsado( );
+            GeneradorTiquetes.registrarTiquete( tiquete );
+            vuelo.agregarTiquete( tiquete );
+            cliente.agregarTiquete( tiquete );
+        }
+
+        // Los vuelos se marcan como realizados después de cargar sus tiquetes, para que los totales de los clientes queden como cuando se salvó el archivo
+        for( int i = 0; i < numVuelos; i++ )
+        {
+            if( realizados[ i ] )
+                vuelos[ i ].realizar( );
+        }
+    }
+
+    /**
+     * Calcula la posición de cada elemento dentro de una lista. Los elementos se comparan por identidad.
+     * @param elementos La lista de elementos
+     * @return Un mapa donde las llaves son los elementos y los valores son sus posiciones
+     */
+    private static <T> Map<T, Integer> calcularPosiciones( List<T> elementos )
+    {
+        Map<T, Integer> posiciones = new IdentityHashMap<T, Integer>( );
+        for( int i = 0; i < elementos.size( ); i++ )
+            posiciones.put( elementos.get( i ), i );
+        return posiciones;
+    }
+
+    /**
+     * Agrega una cadena a la tabla de cadenas si no estaba ya
+     * @param cadenas La tabla de cadenas, donde los valores son las posiciones de las cadenas
+     * @param cadena La cadena que se quiere agregar
+     */
+    private static void agregarCadena( Map<String, Integer> cadenas, String cadena )
+    {
+        cadenas.putIfAbsent( cadena, cadenas.size( ) );
+    }
+
+    /**
+     * Escribe un entero no negativo usando 7 bits por byte. El bit más alto de cada byte indica si el número continúa en el siguiente byte.
+     * @param out El flujo donde se escribe
+     * @param valor El valor que se quiere escribir
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo
+     */
+    static void escribirVarint( DataOutputStream out, int valor ) throws IOException
+    {
+        while( ( valor & ~0x7F ) != 0 )
+        {
+            out.writeByte( ( valor & 0x7F ) | 0x80 );
+            valor >>>= 7;
+        }
+        out.writeByte( valor );
+    }
+
+    /**
+     * Lee un entero no negativo escrito con escribirVarint
+     * @param buffer El buffer del que se lee
+     * @return El valor leído
+     */
+    static int leerVarint( ByteBuffer buffer )
+    {
+        int valor = 0;
+        int desplazamiento = 0;
+        byte b;
+        do
+        {
+            b = buffer.get( );
+            valor |= ( b & 0x7F ) << desplazamiento;
+            desplazamiento += 7;
+        } while( b < 0 );
+        return valor;
+    }
+}
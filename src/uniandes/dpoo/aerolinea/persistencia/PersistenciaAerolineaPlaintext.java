@@ -1,29 +1,437 @@
 package uniandes.dpoo.aerolinea.persistencia;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uniandes.dpoo.aerolinea.exceptions.AeropuertoDuplicadoException;
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteException;
+import uniandes.dpoo.aerolinea.exceptions.ProgramacionInvalidaException;
 import uniandes.dpoo.aerolinea.modelo.Aerolinea;
+import uniandes.dpoo.aerolinea.modelo.Aeropuerto;
+import uniandes.dpoo.aerolinea.modelo.Avion;
+import uniandes.dpoo.aerolinea.modelo.ProgramacionVuelo;
+import uniandes.dpoo.aerolinea.modelo.Ruta;
+import uniandes.dpoo.aerolinea.modelo.Vuelo;
 
 /**
- * Esta clase no está implementada - y no debería implementarse como parte del taller.
- * 
- * Su objetivo es sólo ilustrar que podría haber varias implementaciones de la misma interfaz, y que durante la ejecución alguien podría decidir cuál de estas implementaciones
- * usar.
+ * Esta clase salva y carga la estructura de la aerolínea (aeropuertos, rutas, aviones y vuelos) en un archivo de texto plano.
+ *
+ * Cada línea del archivo es un registro y sus campos están separados por tabuladores. El primer campo indica el tipo de registro:
+ * <ul>
+ * <li>AEROPUERTO código nombre latitud longitud</li>
+ * <li>RUTA código códigoOrigen códigoDestino horaSalida horaLlegada</li>
+ * <li>AVION nombre capacidad</li>
+ * <li>VUELO códigoRuta fecha nombreAvion</li>
+ * </ul>
+ * Un registro sólo puede referirse a elementos que aparecen en líneas anteriores del archivo.
+ *
+ * Para cargar el archivo no se parte en líneas ni en campos: se recorren directamente los bytes del archivo y sólo se construyen las cadenas que terminan dentro de los
+ * objetos de la aerolínea. Las cadenas que se repiten (códigos de ruta, nombres de aviones y fechas) se construyen una sola vez.
  */
 public class PersistenciaAerolineaPlaintext implements IPersistenciaAerolinea
 {
-	
-	@Override
-	public void cargarAerolinea(String archivo, Aerolinea aerolinea) throws Exception {
-	    // TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public void salvarAerolinea(String archivo, Aerolinea aerolinea) throws Exception {
-		// TODO Auto-generated method stub
-		
-	}
-
-	
-	
-}
+    private static final String AEROPUERTO = "AEROPUERTO";
+    private static final String RUTA = "RUTA";
+    private static final String AVION = "AVION";
+    private static final String VUELO = "VUELO";
+
+    private static final byte TABULADOR = '\t';
+    private static final byte SALTO_LINEA = '\n';
+    private static final byte RETORNO = '\r';
+
+    /**
+     * Carga la estructura de la aerolínea a partir de un archivo de texto plano
+     * @param archivo La ruta al archivo que contiene la información que se va a cargar
+     * @param aerolinea La aerolínea dentro de la cual debe almacenarse la información
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo el archivo
+     * @throws InformacionInconsistenteException Se lanza esta excepción si alguna línea no tiene el formato esperado, o si hay información inconsistente dentro del archivo o
+     *         entre el archivo y el estado de la aerolínea
+     */
+    @Override
+    public void cargarAerolinea( String archivo, Aerolinea aerolinea ) throws IOException, InformacionInconsistenteException
+    {
+        EscanerBytes escaner = new EscanerBytes( Files.readAllBytes( Paths.get( archivo ) ) );
+        Map<String, Aeropuerto> aeropuertos = new HashMap<String, Aeropuerto>( );
+        List<ProgramacionVuelo> programacion = new ArrayList<ProgramacionVuelo>( );
+
+        while( escaner.siguienteLinea( ) )
+        {
+            if( escaner.campoEs( VUELO ) )
+            {
+                String codigoRuta = escaner.siguienteTextoRepetido( );
+                String fecha = escaner.siguienteTextoRepetido( );
+                String nombreAvion = escaner.siguienteTextoRepetido( );
+                programacion.add( new ProgramacionVuelo( fecha, codigoRuta, nombreAvion ) );
+            }
+            else if( escaner.campoEs( RUTA ) )
+            {
+                String codigo = escaner.siguienteTextoRepetido( );
+                Aeropuerto origen = buscarAeropuerto( aeropuertos, escaner );
+                Aeropuerto destino = buscarAeropuerto( aeropuertos, escaner );
+                String horaSalida = escaner.siguienteTextoRepetido( );
+                String horaLlegada = escaner.siguienteTextoRepetido( );
+                aerolinea.agregarRuta( new Ruta( codigo, origen, destino, horaSalida, horaLlegada ) );
+            }
+            else if( escaner.campoEs( AVION ) )
+            {
+                String nombre = escaner.siguienteTextoRepetido( );
+                int capacidad = escaner.siguienteEntero( );
+                aerolinea.agregarAvion( new Avion( nombre, capacidad ) );
+            }
+            else if( escaner.campoEs( AEROPUERTO ) )
+            {
+                String codigo = escaner.siguienteTextoRepetido( );
+                String nombre = escaner.siguienteTexto( );
+                double latitud = escaner.siguienteDecimal( );
+                double longitud = escaner.siguienteDecimal( );
+                try
+                {
+                    aeropuertos.put( codigo, new Aeropuerto( codigo, nombre, latitud, longitud ) );
+                }
+                catch( AeropuertoDuplicadoException e )
+                {
+                    throw new InformacionInconsistenteException( e.getMessage( ) );
+                }
+            }
+            else
+            {
+                throw escaner.error( "tipo de registro desconocido" );
+            }
+            escaner.terminarLinea( );
+        }
+
+        try
+        {
+            aerolinea.programarVuelos( programacion );
+        }
+        catch( ProgramacionInvalidaException e )
+        {
+            throw new InformacionInconsistenteException( e.getMessage( ) + ": " + e.getErrores( ) );
+        }
+    }
+
+    /**
+     * Lee el siguiente campo, que debe ser el código de un aeropuerto que ya se cargó, y retorna el aeropuerto correspondiente
+     * @param aeropuertos Los aeropuertos que se han cargado, organizados por código
+     * @param escaner El escáner que está recorriendo el archivo
+     * @return El aeropuerto
+     * @throws InformacionInconsistenteException Se lanza esta excepción si no se había cargado un aeropuerto con ese código
+     */
+    private Aeropuerto buscarAeropuerto( Map<String, Aeropuerto> aeropuertos, EscanerBytes escaner ) throws InformacionInconsistenteException
+    {
+        String codigo = escaner.siguienteTextoRepetido( );
+        Aeropuerto aeropuerto = aeropuertos.get( codigo );
+        if( aeropuerto == null )
+            throw escaner.error( "el aeropuerto " + codigo + " no existe" );
+        return aeropuerto;
+    }
+
+    /**
+     * Salva la estructura de la aerolínea en un archivo de texto plano
+     * @param archivo La ruta al archivo donde debe quedar almacenada la información
+     * @param aerolinea La aerolínea que tiene la información que se quiere almacenar
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo el archivo, o si alguno de los textos contiene tabuladores o saltos de línea
+     */
+    @Override
+    public void salvarAerolinea( String archivo, Aerolinea aerolinea ) throws IOException
+    {
+        EscrituraAtomica.escribir( Paths.get( archivo ), salida -> {
+            Writer writer = new OutputStreamWriter( salida, StandardCharsets.UTF_8 );
+            for( Aeropuerto aeropuerto : aerolinea.getAeropuertos( ) )
+                escribirLinea( writer, AEROPUERTO, aeropuerto.getCodigo( ), aeropuerto.getNombre( ), Double.toString( aeropuerto.getLatitud( ) ),
+                        Double.toString( aeropuerto.getLongitud( ) ) );
+            for( Ruta ruta : aerolinea.getRutas( ) )
+                escribirLinea( writer, RUTA, ruta.getCodigoRuta( ), ruta.getOrigen( ).getCodigo( ), ruta.getDestino( ).getCodigo( ), ruta.getHoraSalida( ),
+                        ruta.getHoraLlegada( ) );
+            for( Avion avion : aerolinea.getAviones( ) )
+                escribirLinea( writer, AVION, avion.getNombre( ), Integer.toString( avion.getCapacidad( ) ) );
+            for( Vuelo vuelo : aerolinea.getVuelos( ) )
+                escribirLinea( writer, VUELO, vuelo.getRuta( ).getCodigoRuta( ), vuelo.getFecha( ), vuelo.getAvion( ).getNombre( ) );
+            writer.flush( );
+        } );
+    }
+
+    /**
+     * Escribe un registro en una línea, separando los campos con tabuladores
+     * @param writer El writer donde se escribe
+     * @param tipo El tipo de registro
+     * @param campos Los campos del registro
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo o si alguno de los campos contiene tabuladores o saltos de línea
+     */
+    private static void escribirLinea( Writer writer, String tipo, String... campos ) throws IOException
+    {
+        writer.write( tipo );
+        for( String campo : campos )
+        {
+            if( campo.indexOf( TABULADOR ) >= 0 || campo.indexOf( SALTO_LINEA ) >= 0 || campo.indexOf( RETORNO ) >= 0 )
+                throw new IOException( "El texto '" + campo + "' no se puede salvar porque contiene tabuladores o saltos de línea" );
+            writer.write( TABULADOR );
+            writer.write( campo );
+        }
+        writer.write( SALTO_LINEA );
+    }
+
+    /**
+     * Esta clase recorre los bytes de un archivo de texto plano campo por campo, sin partirlo en líneas ni construir cadenas para los campos que no las necesitan.
+     */
+    private static class EscanerBytes
+    {
+        /**
+         * El contenido completo del archivo
+         */
+        private byte[] datos;
+
+        /**
+         * La posición donde empieza el campo actual
+         */
+        private int inicio;
+
+        /**
+         * La posición donde termina el campo actual (sin incluirla)
+         */
+        private int fin;
+
+        /**
+         * El número de la línea actual, contando desde 1
+         */
+        private int linea;
+
+        /**
+         * Las cadenas que ya se construyeron para campos que se repiten mucho, organizadas por un hash de sus bytes
+         */
+        private TablaCadenas cadenas;
+
+        EscanerBytes( byte[] datos )
+        {
+            this.datos = datos;
+            this.fin = -1;
+            this.cadenas = new TablaCadenas( );
+        }
+
+        /**
+         * Avanza hasta la siguiente línea que no esté vacía y deja como campo actual su primer campo. Los saltos de línea pueden ser LF, CRLF o CR.
+         * @return Retorna true si había otra línea
+         */
+        boolean siguienteLinea( )
+        {
+            // El campo actual termina en el salto de la línea anterior, así que ese salto también se cuenta en el recorrido
+            int posicion = fin;
+            if( posicion < 0 )
+            {
+                posicion = 0;
+                linea = 1;
+            }
+            while( posicion < datos.length && ( datos[ posicion ] == SALTO_LINEA || datos[ posicion ] == RETORNO ) )
+            {
+                // Un retorno seguido de un salto de línea (CRLF) es un solo salto
+                if( datos[ posicion ] == SALTO_LINEA || posicion + 1 == datos.length || datos[ posicion + 1 ] != SALTO_LINEA )
+                    linea++ ;
+                posicion++ ;
+            }
+            if( posicion >= datos.length )
+                return false;
+
+            leerCampo( posicion );
+            return true;
+        }
 
+        /**
+         * Verifica que se haya llegado al final de la línea actual
+         * @throws InformacionInconsistenteException Se lanza esta excepción si la línea tiene más campos
+         */
+        void terminarLinea( ) throws InformacionInconsistenteException
+        {
+            if( fin < datos.length && datos[ fin ] == TABULADOR )
+                throw error( "la línea tiene más campos de los esperados" );
+        }
+
+        /**
+         * Compara el campo actual con un texto ASCII, sin construir una cadena
+         * @param texto El texto
+         * @return Retorna true si el campo es igual al texto
+         */
+        boolean campoEs( String texto )
+        {
+            if( fin - inicio != texto.length( ) )
+                return false;
+            for( int i = 0; i < texto.length( ); i++ )
+            {
+                if( datos[ inicio + i ] != texto.charAt( i ) )
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Avanza al siguiente campo de la línea y lo interpreta como un número entero, sin construir una cadena
+         * @return El número
+         * @throws InformacionInconsistenteException Se lanza esta excepción si el campo no existe, no es un número entero o es mayor que Integer.MAX_VALUE
+         */
+        int siguienteEntero( ) throws InformacionInconsistenteException
+        {
+            siguienteCampo( );
+            if( inicio == fin )
+                throw error( "se esperaba un número" );
+
+            int valor = 0;
+            for( int i = inicio; i < fin; i++ )
+            {
+                int digito = datos[ i ] - '0';
+                if( digito < 0 || digito > 9 )
+                    throw error( "se esperaba un número" );
+                if( valor > ( Integer.MAX_VALUE - digito ) / 10 )
+                    throw error( "el número es demasiado grande" );
+                valor = valor * 10 + digito;
+            }
+            return valor;
+        }
+
+        /**
+         * Avanza al siguiente campo de la línea y lo interpreta como un número que puede tener cifras decimales
+         * @return El número
+         * @throws InformacionInconsistenteException Se lanza esta excepción si el campo no existe o no es un número
+         */
+        double siguienteDecimal( ) throws InformacionInconsistenteException
+        {
+            try
+            {
+                return Double.parseDouble( siguienteTexto( ) );
+            }
+            catch( NumberFormatException e )
+            {
+                throw error( "se esperaba un número" );
+            }
+        }
+
+        /**
+         * Avanza al siguiente campo de la línea y construye una cadena con su contenido
+         * @return El texto del campo
+         * @throws InformacionInconsistenteException Se lanza esta excepción si la línea no tiene más campos
+         */
+        String siguienteTexto( ) throws InformacionInconsistenteException
+        {
+            siguienteCampo( );
+            return new String( datos, inicio, fin - inicio, StandardCharsets.UTF_8 );
+        }
+
+        /**
+         * Avanza al siguiente campo de la línea y retorna una cadena con su contenido. Si el mismo texto ya había aparecido antes, se retorna la misma cadena sin construir
+         * una nueva.
+         * @return El texto del campo
+         * @throws InformacionInconsistenteException Se lanza esta excepción si la línea no tiene más campos
+         */
+        String siguienteTextoRepetido( ) throws InformacionInconsistenteException
+        {
+            siguienteCampo( );
+            return cadenas.obtener( datos, inicio, fin );
+        }
+
+        /**
+         * Construye una excepción que indica un problema en la línea actual
+         * @param mensaje La descripción del problema
+         * @return La excepción
+         */
+        InformacionInconsistenteException error( String mensaje )
+        {
+            return new InformacionInconsistenteException( "Error en la línea " + linea + ": " + mensaje );
+        }
+
+        private void siguienteCampo( ) throws InformacionInconsistenteException
+        {
+            if( fin >= datos.length || datos[ fin ] != TABULADOR )
+                throw error( "faltan campos" );
+            leerCampo( fin + 1 );
+        }
+
+        /**
+         * Deja como campo actual el que empieza en una posición, que termina en el siguiente tabulador o fin de línea
+         * @param posicion La posición donde empieza el campo
+         */
+        private void leerCampo( int posicion )
+        {
+            inicio = posicion;
+            fin = posicion;
+            while( fin < datos.length && datos[ fin ] != TABULADOR && datos[ fin ] != SALTO_LINEA && datos[ fin ] != RETORNO )
+                fin++ ;
+        }
+    }
+
+    /**
+     * Esta clase es una tabla de hash que permite encontrar la cadena que corresponde a una secuencia de bytes sin construir antes una cadena para buscarla.
+     */
+    private static class TablaCadenas
+    {
+        private byte[][] llaves = new byte[1024][];
+        private String[] valores = new String[1024];
+        private int[] hashes = new int[1024];
+        private int cantidad;
+
+        /**
+         * Retorna la cadena que corresponde a una secuencia de bytes, construyéndola sólo si no se había construido antes
+         * @param datos El arreglo donde están los bytes
+         * @param inicio La posición del primer byte
+         * @param fin La posición después del último byte
+         * @return La cadena
+         */
+        String obtener( byte[] datos, int inicio, int fin )
+        {
+            int hash = 1;
+            for( int i = inicio; i < fin; i++ )
+                hash = 31 * hash + datos[ i ];
+
+            int mascara = llaves.length - 1;
+            int posicion = ( hash ^ ( hash >>> 16 ) ) & mascara;
+            while( llaves[ posicion ] != null )
+            {
+                if( hashes[ posicion ] == hash && Arrays.equals( llaves[ posicion ], 0, llaves[ posicion ].length, datos, inicio, fin ) )
+                    return valores[ posicion ];
+                posicion = ( posicion + 1 ) & mascara;
+            }
+
+            String valor = new String( datos, inicio, fin - inicio, StandardCharsets.UTF_8 );
+            llaves[ posicion ] = Arrays.copyOfRange( datos, inicio, fin );
+            valores[ posicion ] = valor;
+            hashes[ posicion ] = hash;
+            cantidad++ ;
+            if( cantidad * 2 > llaves.length )
+                crecer( );
+            return valor;
+        }
+
+        /**
+         * Duplica el tamaño de la tabla, reubicando las cadenas que ya tenía
+         */
+        private void crecer( )
+        {
+            byte[][] llavesAnteriores = llaves;
+            String[] valoresAnteriores = valores;
+            int[] hashesAnteriores = hashes;
+            llaves = new byte[llavesAnteriores.length * 2][];
+            valores = new String[llavesAnteriores.length * 2];
+            hashes = new int[llavesAnteriores.length * 2];
+
+            int mascara = llaves.length - 1;
+            for( int i = 0; i < llavesAnteriores.length; i++ )
+            {
+                if( llavesAnteriores[ i ] == null )
+                    continue;
+                int hash = hashesAnteriores[ i ];
+                int posicion = ( hash ^ ( hash >>> 16 ) ) & mascara;
+                while( llaves[ posicion ] != null )
+                    posicion = ( posicion + 1 ) & mascara;
+                llaves[ posicion ] = llavesAnteriores[ i ];
+                valores[ posicion ] = valoresAnteriores[ i ];
+                hashes[ posicion ] = hash;
+            }
+        }
+    }
+}
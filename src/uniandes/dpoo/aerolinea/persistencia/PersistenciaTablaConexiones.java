@@ -0,0 +1,69 @@
+package uniandes.dpoo.aerolinea.persistencia;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import uniandes.dpoo.aerolinea.modelo.Aerolinea;
+import uniandes.dpoo.aerolinea.modelo.TablaConexiones;
+
+/**
+ * Esta clase salva y carga las tablas de conexiones.
+ *
+ * Al cargar, el archivo se mapea en memoria y la tabla usa directamente el archivo mapeado, así que queda lista sin leer las celdas: el sistema operativo trae cada parte del
+ * archivo la primera vez que se consulta. El archivo se mapea en modo privado, de modo que si la tabla se actualiza después de cargarla, los cambios quedan sólo en la
+ * memoria y el archivo no se modifica.
+ */
+public class PersistenciaTablaConexiones
+{
+    /**
+     * El número con el que empiezan los archivos de este formato ('DPCT')
+     */
+    private static final int ENCABEZADO = 0x44504354;
+
+    /**
+     * La versión del formato
+     */
+    private static final byte VERSION = 1;
+
+    /**
+     * Salva una tabla de conexiones en un archivo
+     * @param archivo La ruta al archivo donde debe quedar la tabla
+     * @param tabla La tabla
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo el archivo
+     */
+    public void salvarTabla( String archivo, TablaConexiones tabla ) throws IOException
+    {
+        EscrituraAtomica.escribir( Paths.get( archivo ), salida -> {
+            DataOutputStream out = new DataOutputStream( salida );
+            out.writeInt( ENCABEZADO );
+            out.writeByte( VERSION );
+            tabla.escribir( out );
+            out.flush( );
+        } );
+    }
+
+    /**
+     * Carga una tabla de conexiones de un archivo
+     * @param archivo La ruta al archivo que tiene la tabla
+     * @param aerolinea La aerolínea que tiene las rutas de la tabla
+     * @return La tabla
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo el archivo, si el archivo no tiene el formato esperado o si la tabla usa rutas que la aerolínea
+     *         no tiene
+     */
+    public TablaConexiones cargarTabla( String archivo, Aerolinea aerolinea ) throws IOException
+    {
+        MappedByteBuffer buffer;
+        try( FileChannel canal = FileChannel.open( Paths.get( archivo ), StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+        {
+            buffer = canal.map( FileChannel.MapMode.PRIVATE, 0, canal.size( ) );
+        }
+
+        if( buffer.getInt( ) != ENCABEZADO || buffer.get( ) != VERSION )
+            throw new IOException( "El archivo " + archivo + " no tiene el formato de la tabla de conexiones" );
+        return TablaConexiones.leer( buffer, aerolinea );
+    }
+}
@@ -0,0 +1,360 @@
+package uniandes.dpoo.aerolinea.persistencia;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import uniandes.dpoo.aerolinea.exceptions.ClienteRepetidoException;
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteException;
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteTiqueteException;
+import uniandes.dpoo.aerolinea.modelo.Aerolinea;
+import uniandes.dpoo.aerolinea.modelo.Vuelo;
+import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
+import uniandes.dpoo.aerolinea.tiquetes.GeneradorTiquetes;
+import uniandes.dpoo.aerolinea.tiquetes.Tiquete;
+
+/**
+ * Esta clase salva los clientes y tiquetes de una aerolínea como un archivo base más una serie de archivos con cambios (deltas), todos en el mismo formato JSON de
+ * PersistenciaTiquetesJson.
+ *
+ * La primera vez se escribe el archivo base completo. En cada salvada siguiente sólo se escribe un archivo 'archivo.delta.N' con los clientes nuevos y los tiquetes que se
+ * vendieron o cambiaron desde la salvada anterior. Para encontrarlos sin recorrer todos los tiquetes, sólo se revisan los tiquetes de los vuelos marcados como modificados.
+ * Cuando se acumulan suficientes deltas, se vuelve a escribir el archivo base completo y se borran los deltas.
+ *
+ * Al cargar se lee el archivo base y luego los deltas en orden. Un tiquete que ya existe en la aerolínea se actualiza en lugar de reportarse como repetido, y su marca de
+ * usado queda como está en el delta, así que si un tiquete cambió varias veces, vale el último delta. El archivo base guarda el número del último delta que quedó incluido
+ * en él, y sólo se cargan los deltas con un número mayor. Así, si el proceso se interrumpió después de escribir el archivo base pero antes de borrar los deltas que quedaron
+ * incluidos en él, esos deltas no se vuelven a aplicar y no deshacen cambios posteriores.
+ */
+public class PersistenciaTiquetesDelta extends PersistenciaTiquetesJsonStreaming
+{
+    /**
+     * La cantidad de deltas por defecto a partir de la cual se vuelve a escribir el archivo base
+     */
+    public static final int DELTAS_POR_COMPACTACION = 10;
+
+    private static final String SUFIJO_DELTA = ".delta.";
+
+    /**
+     * La llave del archivo base donde se guarda el número del último delta incluido en él. Se escribe antes que los clientes para poder leerla sin cargar todo el archivo.
+     */
+    private static final String ULTIMO_DELTA = "ultimoDelta";
+
+    /**
+     * La cantidad de deltas a partir de la cual se vuelve a escribir el archivo base
+     */
+    private int deltasPorCompactacion;
+
+    /**
+     * Indica si en este momento se está cargando un delta, y no el archivo base
+     */
+    private boolean cargandoDelta;
+
+    /**
+     * Los tiquetes de cada vuelo, organizados por código. Se construye sólo para los vuelos que aparecen en un delta con tiquetes que ya existían.
+     */
+    private Map<Vuelo, Map<String, Tiquete>> tiquetesPorVuelo;
+
+    public PersistenciaTiquetesDelta( )
+    {
+        this( DELTAS_POR_COMPACTACION );
+    }
+
+    /**
+     * Construye un objeto de persistencia que escribe los archivos en modo compacto
+     * @param deltasPorCompactacion La cantidad de deltas a partir de la cual se vuelve a escribir el archivo base
+     */
+    public PersistenciaTiquetesDelta( int deltasPorCompactacion )
+    {
+        super( true );
+        this.deltasPorCompactacion = Math.max( 1, deltasPorCompactacion );
+    }
+
+    /**
+     * Carga el archivo base y todos sus deltas. Al terminar, todos los clientes, vuelos y tiquetes de la aerolínea quedan marcados como guardados.
+     * @param archivo La ruta al archivo base
+     * @param aerolinea La aerolínea dentro de la cual debe almacenarse la información
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo los archivos
+     * @throws InformacionInconsistenteException Se lanza esta excepción si hay información inconsistente dentro de los archivos, o entre los archivos y el estado de la
+     *         aerolínea
+     */
+    @Override
+    public void cargarTiquetes( String archivo, Aerolinea aerolinea ) throws IOException, InformacionInconsistenteException
+    {
+        tiquetesPorVuelo = new IdentityHashMap<Vuelo, Map<String, Tiquete>>( );
+        try
+        {
+            cargandoDelta = false;
+            super.cargarTiquetes( archivo, aerolinea );
+            cargandoDelta = true;
+            long ultimoIncluido = leerUltimoDelta( archivo );
+            for( long numero : listarDeltas( archivo ) )
+            {
+                if( numero > ultimoIncluido )
+                    super.cargarTiquetes( rutaDelta( archivo, numero ).toString( ), aerolinea );
+            }
+        }
+        finally
+        {
+            cargandoDelta = false;
+            tiquetesPorVuelo = null;
+        }
+        marcarTodoComoGuardado( aerolinea );
+    }
+
+    /**
+     * Salva los cambios que ha tenido la aerolínea desde la última vez que se salvó o se cargó. Si el archivo base no existe, o si ya hay suficientes deltas, se escribe el
+     * archivo base completo.
+     * @param archivo La ruta al archivo base
+     * @param aerolinea La aerolínea que tiene la información que se quiere almacenar
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo los archivos
+     */
+    @Override
+    public void salvarTiquetes( String archivo, Aerolinea aerolinea ) throws IOException
+    {
+        List<Long> deltas = listarDeltas( archivo );
+        if( !Files.exists( Paths.get( archivo ) ) || deltas.size( ) >= deltasPorCompactacion )
+        {
+            compactar( archivo, aerolinea, deltas );
+            return;
+        }
+
+        // Recoger los cambios. Las marcas se quitan antes de escribir para que un cambio que ocurra mientras se escribe quede para el siguiente delta
+        List<Cliente> clientes = new ArrayList<Cliente>( );
+        for( Cliente cliente : aerolinea.getClientes( ) )
+        {
+            if( cliente.isModificado( ) )
+            {
+                cliente.marcarComoGuardado( );
+                clientes.add( cliente );
+            }
+        }
+        List<Tiquete> tiquetes = new ArrayList<Tiquete>( );
+        for( Vuelo vuelo : aerolinea.getVuelos( ) )
+        {
+            if( vuelo.isModificado( ) )
+            {
+                vuelo.marcarComoGuardado( );
+                for( Tiquete tiquete : vuelo.getTiquetes( ) )
+                {
+                    if( tiquete.isModificado( ) )
+                    {
+                        tiquete.marcarComoGuardado( );
+                        tiquetes.add( tiquete );
+                    }
+                }
+            }
+        }
+        if( clientes.isEmpty( ) && tiquetes.isEmpty( ) )
+            return;
+
+        long siguiente = ultimoDelta( archivo, deltas ) + 1;
+        try
+        {
+            escribirArchivo( rutaDelta( archivo, siguiente ).toString( ), clientes, tiquetes );
+        }
+        catch( IOException e )
+        {
+            for( Cliente cliente : clientes )
+                cliente.marcarComoModificado( );
+            for( Tiquete tiquete : tiquetes )
+                tiquete.marcarComoModificado( );
+            throw e;
+        }
+    }
+
+    /**
+     * Escribe el archivo base completo y borra los deltas que quedaron incluidos en él
+     * @param archivo La ruta al archivo base
+     * @param aerolinea La aerolínea que tiene la información que se quiere almacenar
+     * @param deltas Los números de los deltas que existían antes de escribir el archivo base
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo o borrando los archivos
+     */
+    private void compactar( String archivo, Aerolinea aerolinea, List<Long> deltas ) throws IOException
+    {
+        JSONObject encabezado = new JSONObject( );
+        encabezado.put( ULTIMO_DELTA, ultimoDelta( archivo, deltas ) );
+        marcarTodoComoGuardado( aerolinea );
+        try
+        {
+            escribirArchivo( archivo, encabezado, aerolinea.getClientes( ), aerolinea.getTiquetes( ) );
+        }
+        catch( IOException e )
+        {
+            for( Cliente cliente : aerolinea.getClientes( ) )
+                cliente.marcarComoModificado( );
+            for( Tiquete tiquete : aerolinea.getTiquetes( ) )
+                tiquete.marcarComoModificado( );
+            throw e;
+        }
+        for( long numero : deltas )
+            Files.deleteIfExists( rutaDelta( archivo, numero ) );
+    }
+
+    /**
+     * Mientras se carga un delta, los clientes que ya existen se ignoran. Mientras se carga el archivo base, se comporta igual que en PersistenciaTiquetesJson.
+     */
+    @Override
+    protected void cargarCliente( Aerolinea aerolinea, JSONObject cliente ) throws ClienteRepetidoException
+    {
+        try
+        {
+            super.cargarCliente( aerolinea, cliente );
+        }
+        catch( ClienteRepetidoException e )
+        {
+            if( !cargandoDelta )
+                throw e;
+        }
+    }
+
+    /**
+     * Mientras se carga un delta, los tiquetes que ya existen se actualizan. Mientras se carga el archivo base, se comporta igual que en PersistenciaTiquetesJson.
+     */
+    @Override
+    protected Tiquete cargarTiquete( Aerolinea aerolinea, JSONObject tiquete ) throws InformacionInconsistenteTiqueteException
+    {
+        String codigoTiquete = tiquete.getString( CODIGO_TIQUETE );
+        if( !cargandoDelta )
+            return super.cargarTiquete( aerolinea, tiquete );
+
+        String codigoRuta = tiquete.getString( CODIGO_RUTA );
+        String fechaVuelo = tiquete.getString( FECHA );
+        Vuelo elVuelo = aerolinea.getVuelo( codigoRuta, fechaVuelo );
+        if( elVuelo == null )
+            throw new InformacionInconsistenteTiqueteException( "vuelo", codigoRuta + " en " + fechaVuelo );
+
+        Map<String, Tiquete> tiquetesVuelo = tiquetesPorVuelo.get( elVuelo );
+        if( !GeneradorTiquetes.validarTiquete( codigoTiquete ) )
+        {
+            // Es un tiquete nuevo: si el índice de su vuelo ya se había construido, se agrega a él
+            Tiquete nuevoTiquete = super.cargarTiquete( aerolinea, tiquete );
+            if( tiquetesVuelo != null )
+                tiquetesVuelo.put( codigoTiquete, nuevoTiquete );
+            return nuevoTiquete;
+        }
+
+        if( tiquetesVuelo == null )
+        {
+            tiquetesVuelo = new HashMap<String, Tiquete>( );
+            for( Tiquete existente : elVuelo.getTiquetes( ) )
+                tiquetesVuelo.put( existente.getCodigo( ), existente );
+            tiquetesPorVuelo.put( elVuelo, tiquetesVuelo );
+        }
+        Tiquete elTiquete = tiquetesVuelo.get( codigoTiquete );
+        if( elTiquete == null )
+            throw new InformacionInconsistenteTiqueteException( "tiquete", codigoTiquete, false );
+
+        elTiquete.setUsado( tiquete.getBoolean( USADO ) );
+        return elTiquete;
+    }
+
+    /**
+     * Marca todos los clientes, vuelos y tiquetes de la aerolínea como guardados
+     * @param aerolinea La aerolínea
+     */
+    private static void marcarTodoComoGuardado( Aerolinea aerolinea )
+    {
+        for( Cliente cliente : aerolinea.getClientes( ) )
+            cliente.marcarComoGuardado( );
+        for( Vuelo vuelo : aerolinea.getVuelos( ) )
+        {
+            if( vuelo.isModificado( ) )
+            {
+                vuelo.marcarComoGuardado( );
+                for( Tiquete tiquete : vuelo.getTiquetes( ) )
+                    tiquete.marcarComoGuardado( );
+            }
+        }
+    }
+
+    /**
+     * Calcula el número del último delta de un archivo base, ya sea uno que todavía existe o uno que ya quedó incluido en el archivo base
+     * @param archivo La ruta al archivo base
+     * @param deltas Los números de los deltas que existen, ordenados de menor a mayor
+     * @return El número del último delta, o 0 si nunca se ha escrito uno
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo el archivo base
+     */
+    private static long ultimoDelta( String archivo, List<Long> deltas ) throws IOException
+    {
+        long ultimo = deltas.isEmpty( ) ? 0 : deltas.get( deltas.size( ) - 1 );
+        if( Files.exists( Paths.get( archivo ) ) )
+            ultimo = Math.max( ultimo, leerUltimoDelta( archivo ) );
+        return ultimo;
+    }
+
+    /**
+     * Lee del archivo base el número del último delta que quedó incluido en él. Sólo se lee el comienzo del archivo.
+     * @param archivo La ruta al archivo base
+     * @return El número del último delta incluido, o 0 si el archivo base no tiene esa información
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo el archivo base
+     */
+    private static long leerUltimoDelta( String archivo ) throws IOException
+    {
+        try( Reader reader = Files.newBufferedReader( Paths.get( archivo ), StandardCharsets.UTF_8 ) )
+        {
+            JSONTokener tokener = new JSONTokener( reader );
+            if( tokener.nextClean( ) != '{' || tokener.nextClean( ) != '"' )
+                return 0;
+            if( !ULTIMO_DELTA.equals( tokener.nextString( '"' ) ) || tokener.nextClean( ) != ':' )
+                return 0;
+            Object valor = tokener.nextValue( );
+            return valor instanceof Number ? ( ( Number )valor ).longValue( ) : 0;
+        }
+        catch( JSONException e )
+        {
+            return 0;
+        }
+    }
+
+    private static Path rutaDelta( String archivo, long numero )
+    {
+        return Paths.get( archivo + SUFIJO_DELTA + numero );
+    }
+
+    /**
+     * Busca los deltas de un archivo base
+     * @param archivo La ruta al archivo base
+     * @return Los números de los deltas, ordenados de menor a mayor
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo la carpeta del archivo
+     */
+    private static List<Long> listarDeltas( String archivo ) throws IOException
+    {
+        Path base = Paths.get( archivo ).toAbsolutePath( );
+        String prefijo = base.getFileName( ).toString( ) + SUFIJO_DELTA;
+        List<Long> numeros = new ArrayList<Long>( );
+        try( DirectoryStream<Path> archivos = Files.newDirectoryStream( base.getParent( ) ) )
+        {
+            for( Path delta : archivos )
+            {
+                String nombre = delta.getFileName( ).toString( );
+                if( !nombre.startsWith( prefijo ) )
+                    continue;
+                try
+                {
+                    numeros.add( Long.parseLong( nombre.substring( prefijo.length( ) ) ) );
+                }
+                catch( NumberFormatException e )
+                {
+                    // No es un delta de este archivo
+                }
+            }
+        }
+        Collections.sort( numeros );
+        return numeros;
+    }
+}
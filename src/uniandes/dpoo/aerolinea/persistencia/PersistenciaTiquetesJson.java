@@ -2,8 +2,12 @@ package uniandes.dpoo.aerolinea.persistencia;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.function.Function;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -26,11 +30,40 @@ public class PersistenciaTiquetesJson implements IPersistenciaTiquetes
     private static final String NOMBRE_CLIENTE = "nombre";
     private static final String TIPO_CLIENTE = "tipoCliente";
     private static final String CLIENTE = "cliente";
-    private static final String USADO = "usado";
+    protected static final String USADO = "usado";
     private static final String TARIFA = "tarifa";
-    private static final String CODIGO_TIQUETE = "codigoTiquete";
-    private static final String FECHA = "fecha";
-    private static final String CODIGO_RUTA = "codigoRuta";
+    protected static final String CODIGO_TIQUETE = "codigoTiquete";
+    protected static final String FECHA = "fecha";
+    protected static final String CODIGO_RUTA = "codigoRuta";
+    protected static final String CLIENTES = "clientes";
+    protected static final String TIQUETES = "tiquetes";
+
+    /**
+     * La cantidad de espacios que se usan para indentar el archivo cuando no se escribe en modo compacto
+     */
+    private static final int INDENTACION = 2;
+
+    /**
+     * Indica si los archivos se escriben sin indentación ni saltos de línea
+     */
+    private boolean compacto;
+
+    /**
+     * Construye un objeto de persistencia que escribe los archivos indentados, para que sean fáciles de leer
+     */
+    public PersistenciaTiquetesJson( )
+    {
+        this( false );
+    }
+
+    /**
+     * Construye un objeto de persistencia
+     * @param compacto Indica si los archivos se deben escribir sin indentación ni saltos de línea, lo cual produce archivos más pequeños
+     */
+    public PersistenciaTiquetesJson( boolean compacto )
+    {
+        this.compacto = compacto;
+    }
 
     /**
      * Carga la información de los clientes y tiquetes vendidos por la aerolínea, y actualiza la estructura de objetos que se encuentra dentro de la aerolínea
@@ -45,12 +78,15 @@ public class PersistenciaTiquetesJson implements IPersistenciaTiquetes
         String jsonCompleto = new String( Files.readAllBytes( new File( archivo ).toPath( ) ) );
         JSONObject raiz = new JSONObject( jsonCompleto );
 
-        cargarClientes( aerolinea, raiz.getJSONArray( "clientes" ) );
-        cargarTiquetes( aerolinea, raiz.getJSONArray( "tiquetes" ) );
+        cargarClientes( aerolinea, raiz.getJSONArray( CLIENTES ) );
+        cargarTiquetes( aerolinea, raiz.getJSONArray( TIQUETES ) );
     }
 
     /**
-     * Salva en un archivo toda la información sobre los clientes y los tiquetes vendidos por la aerolínea
+     * Salva en un archivo toda la información sobre los clientes y los tiquetes vendidos por la aerolínea.
+     * 
+     * Los clientes y los tiquetes se escriben uno por uno a medida que se recorren, sin construir antes el documento completo. El archivo se escribe primero en un archivo
+     * temporal que sólo reemplaza al original cuando está completo, así que una falla durante la escritura nunca deja un archivo truncado.
      * @param archivo La ruta al archivo donde debe quedar almacenada la información
      * @param aerolinea La aerolínea que tiene la información que se quiere almacenar
      * @throws IOException Se lanza esta excepción si hay problemas escribiendo el archivo
@@ -58,18 +94,96 @@ public class PersistenciaTiquetesJson implements IPersistenciaTiquetes
     @Override
     public void salvarTiquetes( String archivo, Aerolinea aerolinea ) throws IOException
     {
-        JSONObject jobject = new JSONObject( );
+        escribirArchivo( archivo, aerolinea.getClientes( ), aerolinea.getTiquetes( ) );
+    }
+
+    /**
+     * Escribe un archivo con los clientes y tiquetes indicados, con el formato que esta clase sabe cargar
+     * @param archivo La ruta al archivo donde debe quedar almacenada la información
+     * @param clientes Los clientes que se deben escribir
+     * @param tiquetes Los tiquetes que se deben escribir
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo el archivo
+     */
+    protected void escribirArchivo( String archivo, Iterable<Cliente> clientes, Iterable<Tiquete> tiquetes ) throws IOException
+    {
+        escribirArchivo( archivo, null, clientes, tiquetes );
+    }
 
-        // Salvar clientes
-        salvarClientes( aerolinea, jobject );
+    /**
+     * Escribe un archivo con los clientes y tiquetes indicados, precedidos por unos valores adicionales en el objeto raíz. Al cargar el archivo, esta clase ignora esos
+     * valores.
+     * @param archivo La ruta al archivo donde debe quedar almacenada la información
+     * @param encabezado Los valores que se escriben al comienzo del objeto raíz, antes de los clientes. Puede ser null.
+     * @param clientes Los clientes que se deben escribir
+     * @param tiquetes Los tiquetes que se deben escribir
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo el archivo
+     */
+    protected void escribirArchivo( String archivo, JSONObject encabezado, Iterable<Cliente> clientes, Iterable<Tiquete> tiquetes ) throws IOException
+    {
+        EscrituraAtomica.escribir( Paths.get( archivo ), salida -> {
+            Writer writer = new OutputStreamWriter( salida, StandardCharsets.UTF_8 );
+            writer.write( '{' );
+            if( encabezado != null )
+            {
+                for( String llave : encabezado.keySet( ) )
+                {
+                    nuevaLinea( writer, 1 );
+                    writer.write( JSONObject.quote( llave ) );
+                    writer.write( compacto ? ":" : ": " );
+                    writer.write( JSONObject.valueToString( encabezado.get( llave ) ) );
+                    writer.write( ',' );
+                }
+            }
+            escribirArreglo( writer, CLIENTES, clientes, this::salvarCliente );
+            writer.write( ',' );
+            escribirArreglo( writer, TIQUETES, tiquetes, this::salvarTiquete );
+            nuevaLinea( writer, 0 );
+            writer.write( '}' );
+            writer.flush( );
+        } );
+    }
+
+    /**
+     * Escribe dentro del archivo una llave cuyo valor es un arreglo, convirtiendo y escribiendo cada elemento por separado
+     * @param writer El writer donde se escribe
+     * @param llave La llave del arreglo dentro del objeto raíz
+     * @param elementos Los elementos que se deben escribir en el arreglo
+     * @param conversor La operación que convierte cada elemento en un objeto JSON
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo
+     */
+    private <T> void escribirArreglo( Writer writer, String llave, Iterable<T> elementos, Function<T, JSONObject> conversor ) throws IOException
+    {
+        nuevaLinea( writer, 1 );
+        writer.write( JSONObject.quote( llave ) );
+        writer.write( compacto ? ":[" : ": [" );
+        boolean primero = true;
+        for( T elemento : elementos )
+        {
+            if( !primero )
+                writer.write( ',' );
+            nuevaLinea( writer, 2 );
+            conversor.apply( elemento ).write( writer, compacto ? 0 : INDENTACION, compacto ? 0 : 2 * INDENTACION );
+            primero = false;
+        }
+        if( !primero )
+            nuevaLinea( writer, 1 );
+        writer.write( ']' );
+    }
 
-        // Salvar tiquetes
-        salvarTiquetes( aerolinea, jobject );
+    /**
+     * Empieza una nueva línea con la indentación de un cierto nivel. En modo compacto no escribe nada.
+     * @param writer El writer donde se escribe
+     * @param nivel El nivel de indentación de la nueva línea
+     * @throws IOException Se lanza esta excepción si hay problemas escribiendo
+     */
+    private void nuevaLinea( Writer writer, int nivel ) throws IOException
+    {
+        if( compacto )
+            return;
 
-        // Escribir la estructura JSON en un archivo
-        PrintWriter pw = new PrintWriter( archivo );
-        jobject.write( pw, 2, 0 );
-        pw.close( );
+        writer.write( '\n' );
+        for( int i = 0; i < nivel * INDENTACION; i++ )
+            writer.write( ' ' );
     }
 
     /**
@@ -83,65 +197,67 @@ public class PersistenciaTiquetesJson implements IPersistenciaTiquetes
         int numClientes = jClientes.length( );
         for( int i = 0; i < numClientes; i++ )
         {
-            JSONObject cliente = jClientes.getJSONObject( i );
-            String tipoCliente = cliente.getString( TIPO_CLIENTE );
-            Cliente nuevoCliente = null;
-            // En las siguientes líneas se utilizan dos estrategias para implementar la carga de objetos: en la primera estrategia, la carga de los objetos
-            // lo hace alguien externo al objeto que se carga; en la segunda estrategia, los objetos saben cargarse.
-            // En general es una mala idea mezclar las dos estrategias: acá lo hacemos para ilustrar las dos posibilidades y mostrar las ventajas y desventajas de cada una.
-            // Lo que sí es recomendable es seleccionar una estrategia y usarla consistentemente para cargar y salvar.
-            if( ClienteNatural.NATURAL.equals( tipoCliente ) )
-            {
-                // 1. En esta estrategia, en ESTA clase se realiza todo lo que tiene que ver con cargar objetos de la clase ClienteNatural
-                // Al revisar el código de la clase ClienteNatural, no hay nada que tenga que ver con cargar o salvar.
-                // En este caso, la persistencia es una preocupación transversal de la que no se ocupa la clase ClienteNatural
-                String nombre = cliente.getString( NOMBRE_CLIENTE );
-                nuevoCliente = new ClienteNatural( nombre );
-            }
-            else
-            {
-                // 2. En esta estrategia, en la clase ClienteCorporativo se realiza una parte de lo que tiene que ver con cargar objetos de la clase ClienteCorporativo.
-                // La clase ClienteCorporativo tiene un método para cargar y otro para salvar.
-                // En este caso, la persistencia es una preocupación de la cual se ocupa la clase ClienteCorporativo
-                nuevoCliente = ClienteCorporativo.cargarDesdeJSON( cliente );
-            }
-            if( !aerolinea.existeCliente( nuevoCliente.getIdentificador( ) ) )
-                aerolinea.agregarCliente( nuevoCliente );
-            else
-                throw new ClienteRepetidoException( nuevoCliente.getTipoCliente( ), nuevoCliente.getIdentificador( ) );
+            cargarCliente( aerolinea, jClientes.getJSONObject( i ) );
         }
     }
 
     /**
-     * Salva la información de los clientes de la aerolínea dentro del objeto json que se recibe por parámetro.
-     * 
-     * La información de los clientes queda dentro de la llave 'clientes'
-     * @param aerolinea La aerolínea que tiene la información
-     * @param jobject El objeto JSON donde debe quedar la información de los clientes
+     * Carga un cliente de la aerolínea a partir de su representación JSON
+     * @param aerolinea La aerolínea donde debe quedar el cliente
+     * @param cliente El objeto JSON con la información del cliente
+     * @throws ClienteRepetidoException Lanza esta excepción si el cliente tiene el mismo identificador que otro cliente
      */
-    private void salvarClientes( Aerolinea aerolinea, JSONObject jobject )
+    protected void cargarCliente( Aerolinea aerolinea, JSONObject cliente ) throws ClienteRepetidoException
     {
-        JSONArray jClientes = new JSONArray( );
-        for( Cliente cliente : aerolinea.getClientes( ) )
+        String tipoCliente = cliente.getString( TIPO_CLIENTE );
+        Cliente nuevoCliente = null;
+        // En las siguientes líneas se utilizan dos estrategias para implementar la carga de objetos: en la primera estrategia, la carga de los objetos
+        // lo hace alguien externo al objeto que se carga; en la segunda estrategia, los objetos saben cargarse.
+        // En general es una mala idea mezclar las dos estrategias: acá lo hacemos para ilustrar las dos posibilidades y mostrar las ventajas y desventajas de cada una.
+        // Lo que sí es recomendable es seleccionar una estrategia y usarla consistentemente para cargar y salvar.
+        if( ClienteNatural.NATURAL.equals( tipoCliente ) )
         {
-            // Acá también se utilizaron dos estrategias para salvar los clientes.
-            // Para los clientes naturales, esta clase extrae la información de los objetos y la organiza para que luego sea salvada.
-            // Para los clientes corporativos, la clase ClienteCorporativo hace todo lo que está en sus manos para persistir un cliente
-            if( ClienteNatural.NATURAL.equals( cliente.getTipoCliente( ) ) )
-            {
-                JSONObject jCliente = new JSONObject( );
-                jCliente.put( NOMBRE_CLIENTE, cliente.getIdentificador( ) );
-                jClientes.put( jCliente );
-            }
-            else
-            {
-                ClienteCorporativo cc = ( ClienteCorporativo )cliente;
-                JSONObject jCliente = cc.salvarEnJSON( );
-                jClientes.put( jCliente );
-            }
+            // 1. En esta estrategia, en ESTA clase se realiza todo lo que tiene que ver con cargar objetos de la clase ClienteNatural
+            // Al revisar el código de la clase ClienteNatural, no hay nada que tenga que ver con cargar o salvar.
+            // En este caso, la persistencia es una preocupación transversal de la que no se ocupa la clase ClienteNatural
+            String nombre = cliente.getString( NOMBRE_CLIENTE );
+            nuevoCliente = new ClienteNatural( nombre );
         }
+        else
+        {
+            // 2. En esta estrategia, en la clase ClienteCorporativo se realiza una parte de lo que tiene que ver con cargar objetos de la clase ClienteCorporativo.
+            // La clase ClienteCorporativo tiene un método para cargar y otro para salvar.
+            // En este caso, la persistencia es una preocupación de la cual se ocupa la clase ClienteCorporativo
+            nuevoCliente = ClienteCorporativo.cargarDesdeJSON( cliente );
+        }
+        if( !aerolinea.existeCliente( nuevoCliente.getIdentificador( ) ) )
+            aerolinea.agregarCliente( nuevoCliente );
+        else
+            throw new ClienteRepetidoException( nuevoCliente.getTipoCliente( ), nuevoCliente.getIdentificador( ) );
+    }
 
-        jobject.put( "clientes", jClientes );
+    /**
+     * Construye el objeto JSON con la información de un cliente
+     * @param cliente El cliente que se va a salvar
+     * @return El objeto JSON con la información del cliente
+     */
+    private JSONObject salvarCliente( Cliente cliente )
+    {
+        // Acá también se utilizaron dos estrategias para salvar los clientes.
+        // Para los clientes naturales, esta clase extrae la información de los objetos y la organiza para que luego sea salvada.
+        // Para los clientes corporativos, la clase ClienteCorporativo hace todo lo que está en sus manos para persistir un cliente
+        if( ClienteNatural.NATURAL.equals( cliente.getTipoCliente( ) ) )
+        {
+            JSONObject jCliente = new JSONObject( );
+            jCliente.put( TIPO_CLIENTE, ClienteNatural.NATURAL );
+            jCliente.put( NOMBRE_CLIENTE, cliente.getIdentificador( ) );
+            return jCliente;
+        }
+        else
+        {
+            ClienteCorporativo cc = ( ClienteCorporativo )cliente;
+            return cc.salvarEnJSON( );
+        }
     }
 
     /**
@@ -156,64 +272,69 @@ public class PersistenciaTiquetesJson implements IPersistenciaTiquetes
         int numTiquetes = jTiquetes.length( );
         for( int i = 0; i < numTiquetes; i++ )
         {
-            JSONObject tiquete = jTiquetes.getJSONObject( i );
-
-            // Extraer y validar la información del tiquete
-            String codigoRuta = tiquete.getString( CODIGO_RUTA );
-            Ruta laRuta = aerolinea.getRuta( codigoRuta );
-            if( laRuta == null )
-                throw new InformacionInconsistenteTiqueteException( "ruta", codigoRuta );
-
-            String fechaVuelo = tiquete.getString( FECHA );
-            Vuelo elVuelo = aerolinea.getVuelo( codigoRuta, fechaVuelo );
-            if( elVuelo == null )
-                throw new InformacionInconsistenteTiqueteException( "vuelo", codigoRuta + " en " + fechaVuelo );
-
-            String codigoTiquete = tiquete.getString( CODIGO_TIQUETE );
-            boolean existe = GeneradorTiquetes.validarTiquete( codigoTiquete );
-
-            if( existe )
-                throw new InformacionInconsistenteTiqueteException( "tiquete", codigoTiquete, false );
-
-            int tarifa = tiquete.getInt( TARIFA );
-            boolean tiqueteUsado = tiquete.getBoolean( USADO );
-
-            String identificadorCliente = tiquete.getString( CLIENTE );
-            Cliente elCliente = aerolinea.getCliente( identificadorCliente );
-            if( elCliente == null )
-                throw new InformacionInconsistenteTiqueteException( "cliente", identificadorCliente );
-
-            // Construir y registrar el tiquete
-            Tiquete nuevoTiquete = new Tiquete( codigoTiquete, elVuelo, elCliente, tarifa );
-            if( tiqueteUsado )
-                nuevoTiquete.marcarComoUsado( );
-            GeneradorTiquetes.registrarTiquete( nuevoTiquete );
+            cargarTiquete( aerolinea, jTiquetes.getJSONObject( i ) );
         }
     }
 
     /**
-     * Salva la información de los tiquetes de la aerolínea dentro del objeto json que se recibe por parámetro.
-     * 
-     * La información de los tiquetes queda dentro de la llave 'tiquetes'
-     * @param aerolinea La aerolínea que tiene la información
-     * @param jobject El objeto JSON donde debe quedar la información de los tiquetes
+     * Carga un tiquete de la aerolínea a partir de su representación JSON. El tiquete queda asociado a su vuelo y a su cliente.
+     * @param aerolinea La aerolínea donde debe quedar el tiquete
+     * @param tiquete El objeto JSON con la información del tiquete
+     * @return El tiquete que se cargó
+     * @throws InformacionInconsistenteTiqueteException Lanza esta excepción si la información del tiquete no es consistente con el resto de elementos de la aerolínea
      */
-    private void salvarTiquetes( Aerolinea aerolinea, JSONObject jobject )
+    protected Tiquete cargarTiquete( Aerolinea aerolinea, JSONObject tiquete ) throws InformacionInconsistenteTiqueteException
     {
-        JSONArray jTiquetes = new JSONArray( );
-        for( Tiquete tiquete : aerolinea.getTiquetes( ) )
-        {
-            JSONObject jTiquete = new JSONObject( );
-            jTiquete.put( CODIGO_TIQUETE, tiquete.getCodigo( ) );
-            jTiquete.put( CODIGO_RUTA, tiquete.getVuelo( ).getRuta( ).getCodigoRuta( ) );
-            jTiquete.put( FECHA, tiquete.getVuelo( ).getFecha( ) );
-            jTiquete.put( TARIFA, tiquete.getTarifa( ) );
-            jTiquete.put( USADO, tiquete.isUsado( ) );
-            jTiquete.put( CLIENTE, tiquete.getCliente( ).getIdentificador( ) );
-
-            jTiquetes.put( jTiquete );
-        }
-        jobject.put( "tiquetes", jTiquetes );
+        // Extraer y validar la información del tiquete
+        String codigoRuta = tiquete.getString( CODIGO_RUTA );
+        Ruta laRuta = aerolinea.getRuta( codigoRuta );
+        if( laRuta == null )
+            throw new InformacionInconsistenteTiqueteException( "ruta", codigoRuta );
+
+        String fechaVuelo = tiquete.getString( FECHA );
+        Vuelo elVuelo = aerolinea.getVuelo( codigoRuta, fechaVuelo );
+        if( elVuelo == null )
+            throw new InformacionInconsistenteTiqueteException( "vuelo", codigoRuta + " en " + fechaVuelo );
+
+        String codigoTiquete = tiquete.getString( CODIGO_TIQUETE );
+        boolean existe = GeneradorTiquetes.validarTiquete( codigoTiquete );
+
+        if( existe )
+            throw new InformacionInconsistenteTiqueteException( "tiquete", codigoTiquete, false );
+
+        int tarifa = tiquete.getInt( TARIFA );
+        boolean tiqueteUsado = tiquete.getBoolean( USADO );
+
+        String identificadorCliente = tiquete.getString( CLIENTE );
+        Cliente elCliente = aerolinea.getCliente( identificadorCliente );
+        if( elCliente == null )
+            throw new InformacionInconsistenteTiqueteException( "cliente", identificadorCliente );
+
+        // Construir y registrar el tiquete
+        Tiquete nuevoTiquete = new Tiquete( codigoTiquete, elVuelo, elCliente, tarifa );
+        if( tiqueteUsado )
+            nuevoTiquete.marcarComoUsado( );
+        GeneradorTiquetes.registrarTiquete( nuevoTiquete );
+        elVuelo.agregarTiquete( nuevoTiquete );
+        elCliente.agregarTiquete( nuevoTiquete );
+        return nuevoTiquete;
+    }
+
+    /**
+     * Construye el objeto JSON con la información de un tiquete
+     * @param tiquete El tiquete que se va a salvar
+     * @return El objeto JSON con la información del tiquete
+     */
+    private JSONObject salvarTiquete( Tiquete tiquete )
+    {
+        JSONObject jTiquete = new JSONObject( );
+        jTiquete.put( CODIGO_TIQUETE, tiquete.getCodigo( ) );
+        jTiquete.put( CODIGO_RUTA, tiquete.getVuelo( ).getRuta( ).getCodigoRuta( ) );
+        jTiquete.put( FECHA, tiquete.getVuelo( ).getFecha( ) );
+        jTiquete.put( TARIFA, tiquete.getTarifa( ) );
+        jTiquete.put( USADO, tiquete.isUsado( ) );
+        jTiquete.put( CLIENTE, tiquete.getCliente( ).getIdentificador( ) );
+        return jTiquete;
     }
 
 }
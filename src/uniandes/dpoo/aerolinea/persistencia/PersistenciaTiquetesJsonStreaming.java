@@ -0,0 +1,143 @@
+package uniandes.dpoo.aerolinea.persistencia;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import uniandes.dpoo.aerolinea.exceptions.InformacionInconsistenteException;
+import uniandes.dpoo.aerolinea.modelo.Aerolinea;
+
+/**
+ * Esta clase carga los clientes y tiquetes de una aerolínea desde el mismo formato JSON que usa PersistenciaTiquetesJson, pero sin construir en memoria el árbol completo del
+ * documento.
+ * 
+ * El archivo se recorre de principio a fin con un JSONTokener: cada cliente y cada tiquete se interpreta por separado y se convierte de inmediato en un objeto del dominio, de
+ * modo que la memoria necesaria para la carga no depende del tamaño del archivo sino del tamaño de un registro. Como los tiquetes hacen referencia a los clientes, dentro del
+ * archivo la llave 'clientes' debe aparecer antes que la llave 'tiquetes'.
+ * 
+ * Los archivos se salvan igual que en PersistenciaTiquetesJson.
+ */
+public class PersistenciaTiquetesJsonStreaming extends PersistenciaTiquetesJson
+{
+    public PersistenciaTiquetesJsonStreaming( )
+    {
+        super( );
+    }
+
+    /**
+     * Construye un objeto de persistencia
+     * @param compacto Indica si los archivos se deben escribir sin indentación ni saltos de línea
+     */
+    public PersistenciaTiquetesJsonStreaming( boolean compacto )
+    {
+        super( compacto );
+    }
+
+    /**
+     * Carga la información de los clientes y tiquetes vendidos por la aerolínea a medida que se va leyendo el archivo, y actualiza la estructura de objetos que se encuentra
+     * dentro de la aerolínea
+     * @param archivo La ruta al archivo que contiene la información que se va a cargar
+     * @param aerolinea La aerolínea dentro de la cual debe almacenarse la información
+     * @throws IOException Se lanza esta excepción si hay problemas leyendo el archivo
+     * @throws InformacionInconsistenteException Se lanza esta excepción si hay información inconsistente dentro del archivo, o entre el archivo y el estado de la aerolínea
+     */
+    @Override
+    public void cargarTiquetes( String archivo, Aerolinea aerolinea ) throws IOException, InformacionInconsistenteException
+    {
+        try( Reader lector = Files.newBufferedReader( Paths.get( archivo ), StandardCharsets.UTF_8 ) )
+        {
+            JSONTokener tokener = new JSONTokener( lector );
+            leerCaracter( tokener, '{' );
+            if( siguienteEs( tokener, '}' ) )
+                return;
+
+            boolean hayMasLlaves = true;
+            while( hayMasLlaves )
+            {
+                leerCaracter( tokener, '"' );
+                String llave = tokener.nextString( '"' );
+                leerCaracter( tokener, ':' );
+
+                if( CLIENTES.equals( llave ) )
+                    cargarArreglo( tokener, aerolinea, true );
+                else if( TIQUETES.equals( llave ) )
+                    cargarArreglo( tokener, aerolinea, false );
+                else
+                    tokener.nextValue( );
+
+                hayMasLlaves = tokener.nextClean( ) == ',';
+                if( !hayMasLlaves )
+                {
+                    tokener.back( );
+                    leerCaracter( tokener, '}' );
+                }
+            }
+        }
+    }
+
+    /**
+     * Recorre un arreglo JSON de clientes o de tiquetes, cargando cada elemento apenas se termina de leer
+     * @param tokener El tokener posicionado justo antes del arreglo
+     * @param aerolinea La aerolínea donde deben quedar los elementos
+     * @param sonClientes Indica si el arreglo contiene clientes (true) o tiquetes (false)
+     * @throws InformacionInconsistenteException Se lanza esta excepción si alguno de los elementos no es consistente con el estado de la aerolínea
+     */
+    private void cargarArreglo( JSONTokener tokener, Aerolinea aerolinea, boolean sonClientes ) throws InformacionInconsistenteException
+    {
+        leerCaracter( tokener, '[' );
+        if( siguienteEs( tokener, ']' ) )
+            return;
+
+        boolean hayMasElementos = true;
+        while( hayMasElementos )
+        {
+            Object elemento = tokener.nextValue( );
+            if( !( elemento instanceof JSONObject ) )
+                throw tokener.syntaxError( "Se esperaba un objeto dentro del arreglo" );
+
+            if( sonClientes )
+                cargarCliente( aerolinea, ( JSONObject )elemento );
+            else
+                cargarTiquete( aerolinea, ( JSONObject )elemento );
+
+            hayMasElementos = tokener.nextClean( ) == ',';
+            if( !hayMasElementos )
+            {
+                tokener.back( );
+                leerCaracter( tokener, ']' );
+            }
+        }
+    }
+
+    /**
+     * Lee el siguiente caracter que no sea un espacio y verifica que sea el esperado
+     * @param tokener El tokener del que se lee
+     * @param esperado El caracter esperado
+     */
+    private static void leerCaracter( JSONTokener tokener, char esperado )
+    {
+        char leido = tokener.nextClean( );
+        if( leido != esperado )
+            throw tokener.syntaxError( "Se esperaba '" + esperado + "' pero se encontró '" + leido + "'" );
+    }
+
+    /**
+     * Revisa si el siguiente caracter que no sea un espacio es el indicado. Si lo es, lo consume; si no, lo deja para la siguiente lectura.
+     * @param tokener El tokener del que se lee
+     * @param caracter El caracter buscado
+     * @return Retorna true si el siguiente caracter era el indicado
+     */
+    private static boolean siguienteEs( JSONTokener tokener, char caracter )
+    {
+        if( tokener.nextClean( ) == caracter )
+            return true;
+
+        tokener.back( );
+        return false;
+    }
+}
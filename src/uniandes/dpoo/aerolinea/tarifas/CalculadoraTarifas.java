@@ -2,7 +2,6 @@ package uniandes.dpoo.aerolinea.tarifas;
 
 import uniandes.dpoo.aerolinea.modelo.Vuelo;
 import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
-import uniandes.dpoo.aerolinea.modelo.Aeropuerto;
 import uniandes.dpoo.aerolinea.modelo.Ruta;
 
 public abstract class CalculadoraTarifas {
@@ -11,20 +10,19 @@ public abstract class CalculadoraTarifas {
 
     public abstract int calcularTarifa(Vuelo vuelo, Cliente cliente);
 
+    // Cotiza una compra de varios tiquetes para el mismo cliente en el mismo vuelo.
+    // Todos los tiquetes de la compra tienen la misma tarifa, así que se calcula una sola vez
+    public int cotizar(Vuelo vuelo, Cliente cliente, int cantidad) {
+        return Math.multiplyExact(calcularTarifa(vuelo, cliente), cantidad);
+    }
+
     protected abstract int calcularCostoBase(Vuelo vuelo, Cliente cliente);
 
     protected abstract double calcularPorcentajeDescuento(Cliente cliente);
 
     protected int calcularDistanciaVuelo(Ruta ruta) {
-    	// Obtener el aeropuerto de origen y destino de la ruta
-        Aeropuerto origen = ruta.getOrigen();
-        Aeropuerto destino = ruta.getDestino();
-
-        // Calcular la distancia entre el aeropuerto de origen y destino usando el método de Aeropuerto
-        int distancia = Aeropuerto.calcularDistancia(origen, destino);
-
-        return distancia;
-        
+        // La ruta ya tiene calculada la distancia entre su origen y su destino, así que no hay que volver a calcularla en cada tiquete
+        return ruta.getDistancia();
     }
 
     protected int calcularValorImpuestos(int costoBase) {
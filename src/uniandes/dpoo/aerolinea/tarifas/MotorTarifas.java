@@ -0,0 +1,75 @@
+package uniandes.dpoo.aerolinea.tarifas;
+
+import java.time.LocalDate;
+
+import uniandes.dpoo.aerolinea.modelo.Vuelo;
+import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
+
+/**
+ * Esta clase decide qué calculadora de tarifas se usa para cada vuelo.
+ *
+ * Se usan las tarifas de temporada baja para los vuelos de enero a mayo y de septiembre a noviembre, y las de temporada alta para el resto del año. Las calculadoras no
+ * guardan estado, así que se usa una sola instancia de cada una para todas las ventas, y la calculadora de cada mes se consulta en una tabla usando la fecha que cada vuelo
+ * ya tiene interpretada. Así, cotizar un tiquete no crea ningún objeto.
+ */
+public class MotorTarifas
+{
+    /**
+     * La calculadora que se usa en temporada alta
+     */
+    public static final CalculadoraTarifas TEMPORADA_ALTA = new CalculadoraTarifasTemporadaAlta( );
+
+    /**
+     * La calculadora que se usa en temporada baja
+     */
+    public static final CalculadoraTarifas TEMPORADA_BAJA = new CalculadoraTarifasTemporadaBaja( );
+
+    /**
+     * La calculadora de cada mes. La posición 0 no se usa para que el índice sea el número del mes.
+     */
+    private static final CalculadoraTarifas[] CALCULADORAS_POR_MES = { null, TEMPORADA_BAJA, TEMPORADA_BAJA, TEMPORADA_BAJA, TEMPORADA_BAJA, TEMPORADA_BAJA, TEMPORADA_ALTA,
+            TEMPORADA_ALTA, TEMPORADA_ALTA, TEMPORADA_BAJA, TEMPORADA_BAJA, TEMPORADA_BAJA, TEMPORADA_ALTA };
+
+    private MotorTarifas( )
+    {
+    }
+
+    /**
+     * Retorna la calculadora que corresponde a la fecha de un vuelo
+     * @param vuelo El vuelo
+     * @return La calculadora de temporada alta o la de temporada baja
+     * @throws IllegalArgumentException Se lanza esta excepción si la fecha del vuelo no es válida
+     */
+    public static CalculadoraTarifas getCalculadora( Vuelo vuelo )
+    {
+        LocalDate fecha = vuelo.getFechaVuelo( );
+        if( fecha == null )
+            throw new IllegalArgumentException( "La fecha " + vuelo.getFecha( ) + " del vuelo no es válida" );
+
+        return CALCULADORAS_POR_MES[ fecha.getMonthValue( ) ];
+    }
+
+    /**
+     * Calcula la tarifa de un tiquete para un cliente en un vuelo, según la temporada del vuelo
+     * @param vuelo El vuelo
+     * @param cliente El cliente que compra el tiquete
+     * @return La tarifa del tiquete
+     */
+    public static int cotizar( Vuelo vuelo, Cliente cliente )
+    {
+        return getCalculadora( vuelo ).calcularTarifa( vuelo, cliente );
+    }
+
+    /**
+     * Calcula el valor de una compra de varios tiquetes para un cliente en un vuelo, según la temporada del vuelo
+     * @param vuelo El vuelo
+     * @param cliente El cliente que compra los tiquetes
+     * @param cantidad La cantidad de tiquetes
+     * @return El valor total de la compra
+     * @throws ArithmeticException Se lanza esta excepción si el valor total no cabe en un int
+     */
+    public static int cotizar( Vuelo vuelo, Cliente cliente, int cantidad )
+    {
+        return getCalculadora( vuelo ).cotizar( vuelo, cliente, cantidad );
+    }
+}
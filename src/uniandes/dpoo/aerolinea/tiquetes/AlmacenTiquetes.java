@@ -0,0 +1,424 @@
+package uniandes.dpoo.aerolinea.tiquetes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import uniandes.dpoo.aerolinea.modelo.Vuelo;
+import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
+
+/**
+ * Esta clase guarda tiquetes de forma compacta, en columnas de números en lugar de un objeto por tiquete.
+ *
+ * Cada tiquete es una fila con cuatro enteros (el código, el número del vuelo, el número del cliente y la tarifa) y dos bits (usado y modificado), es decir poco más de 16
+ * bytes, mientras que un objeto Tiquete con su código ocupa más de 100 bytes y además una referencia en la lista de su vuelo y otra en la de su cliente. Los vuelos y los
+ * clientes se numeran a medida que aparecen, y los códigos de 7 dígitos se guardan como números; los pocos códigos que no tienen esa forma se guardan aparte.
+ *
+ * Las columnas están divididas en páginas de tamaño fijo, así que el almacén crece sin copiar las filas que ya tiene. Cuando se necesita un Tiquete, se crea un
+ * TiqueteAlmacenado que lee y escribe directamente en su fila.
+ *
+ * Las páginas pueden estar en el heap o en un archivo proyectado en memoria. En el segundo caso las columnas de enteros quedan por fuera del heap, así que un historial muy
+ * grande no hace crecer las pausas del recolector de basura; sólo las columnas de bits, que ocupan un cuarto de byte por fila, quedan en el heap. El archivo es un espacio de
+ * trabajo y no una forma de salvar los tiquetes: se borra cuando se cierra el almacén.
+ *
+ * Las filas se agregan en bloques, y las filas de un bloque quedan seguidas. Así, los tiquetes de un vuelo archivado son un rango de filas. Agregar filas está sincronizado;
+ * consultar no usa candados.
+ */
+public class AlmacenTiquetes implements Closeable
+{
+    /**
+     * La cantidad de filas de cada página es 2^BITS_PAGINA
+     */
+    private static final int BITS_PAGINA = 16;
+
+    private static final int TAMANO_PAGINA = 1 << BITS_PAGINA;
+
+    private static final int MASCARA_PAGINA = TAMANO_PAGINA - 1;
+
+    /**
+     * La posición de cada columna de enteros dentro de una página, en bytes
+     */
+    private static final int CODIGOS = 0;
+
+    private static final int VUELOS = TAMANO_PAGINA * 4;
+
+    private static final int CLIENTES = TAMANO_PAGINA * 8;
+
+    private static final int TARIFAS = TAMANO_PAGINA * 12;
+
+    private static final int BYTES_PAGINA = TAMANO_PAGINA * 16;
+
+    /**
+     * El archivo donde están las páginas, o null si las páginas están en el heap
+     */
+    private final FileChannel archivo;
+
+    /**
+     * Las páginas de las columnas de enteros. Cada página tiene las cuatro columnas de sus filas, una después de otra.
+     */
+    private ByteBuffer[] paginas;
+
+    /**
+     * Las páginas de las columnas de bits, con un bit por fila
+     */
+    private AtomicLongArray[] usados;
+
+    private AtomicLongArray[] modificados;
+
+    /**
+     * La cantidad de filas. Se escribe después de llenar las filas nuevas, así que quien lee una fila menor a esta cantidad ve la fila completa.
+     */
+    private volatile int cantidad;
+
+    /**
+     * Los códigos que no tienen 7 dígitos. En la columna de códigos, el código que está en la posición i de este arreglo se guarda como -1 - i.
+     *
+     * Este arreglo y las listas de vuelos y de clientes sólo se cambian dentro de agregar: una posición nueva se llena antes de que el arreglo se publique y antes de que
+     * cambie la cantidad de filas, y cuando se llena el arreglo se reemplaza por una copia más grande. Así, quien lee una fila ya agregada encuentra su posición sin candados.
+     */
+    private volatile String[] otrosCodigos;
+
+    private int cantidadOtrosCodigos;
+
+    /**
+     * Los vuelos y clientes de los tiquetes, según su número, y el número de cada uno
+     */
+    private volatile Vuelo[] listaVuelos;
+
+    private final Map<Vuelo, Integer> numerosVuelos;
+
+    private volatile Cliente[] listaClientes;
+
+    private final Map<Cliente, Integer> numerosClientes;
+
+    /**
+     * Construye un almacén vacío que guarda sus páginas en el heap
+     */
+    public AlmacenTiquetes( )
+    {
+        this( ( FileChannel )null );
+    }
+
+    /**
+     * Construye un almacén vacío que guarda sus columnas de enteros en un archivo proyectado en memoria
+     * @param rutaArchivo La ruta del archivo. Si ya existe, se reemplaza.
+     * @throws IOException Se lanza esta excepción si no se puede crear el archivo
+     */
+    public AlmacenTiquetes( Path rutaArchivo ) throws IOException
+    {
+        this( FileChannel.open( rutaArchivo, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE ) );
+    }
+
+    private AlmacenTiquetes( FileChannel archivo )
+    {
+        this.archivo = archivo;
+        paginas = new ByteBuffer[0];
+        usados = new AtomicLongArray[0];
+        modificados = new AtomicLongArray[0];
+        otrosCodigos = new String[4];
+        listaVuelos = new Vuelo[16];
+        numerosVuelos = new IdentityHashMap<Vuelo, Integer>( );
+        listaClientes = new Cliente[16];
+        numerosClientes = new IdentityHashMap<Cliente, Integer>( );
+    }
+
+    /**
+     * Retorna la cantidad de tiquetes del almacén
+     * @return La cantidad de filas
+     */
+    public int getCantidad( )
+    {
+        return cantidad;
+    }
+
+    /**
+     * Indica si las columnas de enteros del almacén están por fuera del heap
+     * @return Retorna true si el almacén usa un archivo proyectado en memoria
+     */
+    public boolean isFueraDelHeap( )
+    {
+        return archivo != null;
+    }
+
+    /**
+     * Agrega un bloque de tiquetes al almacén. Los tiquetes quedan en filas seguidas, en el orden en el que los entrega la colección, y conservan sus marcas de usado y de
+     * modificado.
+     * @param nuevos Los tiquetes
+     * @return La fila del primer tiquete del bloque
+     * @throws IOException Se lanza esta excepción si el almacén usa un archivo y no se pudo agrandar
+     */
+    public synchronized int agregar( Collection<Tiquete> nuevos ) throws IOException
+    {
+        int inicio = cantidad;
+        int fila = inicio;
+        for( Tiquete tiquete : nuevos )
+        {
+            asegurarPagina( fila >>> BITS_PAGINA );
+            ByteBuffer pagina = paginas[ fila >>> BITS_PAGINA ];
+            int posicion = ( fila & MASCARA_PAGINA ) * 4;
+            pagina.putInt( CODIGOS + posicion, codificar( tiquete.getCodigo( ) ) );
+            pagina.putInt( VUELOS + posicion, numerar( tiquete.getVuelo( ) ) );
+            pagina.putInt( CLIENTES + posicion, numerar( tiquete.getCliente( ) ) );
+            pagina.putInt( TARIFAS + posicion, tiquete.getTarifa( ) );
+            cambiarBit( usados, fila, tiquete.isUsado( ) );
+            cambiarBit( modificados, fila, tiquete.isModificado( ) );
+            fila++;
+        }
+        cantidad = fila;
+        return inicio;
+    }
+
+    /**
+     * Retorna una vista de un rango de filas como una colección de tiquetes. La colección no se puede modificar, y cada vez que se recorre crea un TiqueteAlmacenado por fila.
+     * Su spliterator reparte el rango por la mitad, así que se puede recorrer en paralelo.
+     * @param inicio La primera fila del rango
+     * @param fin La fila siguiente a la última del rango
+     * @return La colección
+     */
+    public Collection<Tiquete> getTiquetes( int inicio, int fin )
+    {
+        if( inicio < 0 || fin < inicio || fin > cantidad )
+            throw new IndexOutOfBoundsException( "El rango [" + inicio + ", " + fin + ") no está en el almacén" );
+
+        return new AbstractCollection<Tiquete>( )
+        {
+            @Override
+            public Iterator<Tiquete> iterator( )
+            {
+                return new Iterator<Tiquete>( )
+                {
+                    private int siguiente = inicio;
+
+                    @Override
+                    public boolean hasNext( )
+                    {
+                        return siguiente < fin;
+                    }
+
+                    @Override
+                    public Tiquete next( )
+                    {
+                        if( siguiente >= fin )
+                            throw new NoSuchElementException( );
+                        return getTiquete( siguiente++ );
+                    }
+                };
+            }
+
+            @Override
+            public Spliterator<Tiquete> spliterator( )
+            {
+                return IntStream.range( inicio, fin ).mapToObj( AlmacenTiquetes.this::getTiquete ).spliterator( );
+            }
+
+            @Override
+            public int size( )
+            {
+                return fin - inicio;
+            }
+        };
+    }
+
+    /**
+     * Crea un tiquete que lee y escribe en una fila del almacén
+     * @param fila La fila
+     * @return El tiquete
+     */
+    public Tiquete getTiquete( int fila )
+    {
+        return new TiqueteAlmacenado( this, fila );
+    }
+
+    public String getCodigo( int fila )
+    {
+        int codigo = leer( CODIGOS, fila );
+        if( codigo >= 0 )
+            return RegistroCodigos.formatear( codigo );
+        return otrosCodigos[ -1 - codigo ];
+    }
+
+    public Vuelo getVuelo( int fila )
+    {
+        return listaVuelos[ leer( VUELOS, fila ) ];
+    }
+
+    public Cliente getCliente( int fila )
+    {
+        return listaClientes[ leer( CLIENTES, fila ) ];
+    }
+
+    public int getTarifa( int fila )
+    {
+        return leer( TARIFAS, fila );
+    }
+
+    /**
+     * Indica si el tiquete de una fila se marcó como usado. No tiene en cuenta si su vuelo ya se realizó.
+     * @param fila La fila
+     * @return El valor del bit de usado
+     */
+    public boolean isUsado( int fila )
+    {
+        return leerBit( usados, fila );
+    }
+
+    /**
+     * Cambia la marca de usado de una fila
+     * @param fila La fila
+     * @param usado El valor nuevo
+     * @return Retorna true si la marca cambió
+     */
+    public boolean setUsado( int fila, boolean usado )
+    {
+        return cambiarBit( usados, fila, usado );
+    }
+
+    public boolean isModificado( int fila )
+    {
+        return leerBit( modificados, fila );
+    }
+
+    public void setModificado( int fila, boolean modificado )
+    {
+        cambiarBit( modificados, fila, modificado );
+    }
+
+    /**
+     * Cierra el archivo del almacén, si tiene uno, y lo borra. Después de cerrarlo no se puede seguir usando el almacén.
+     */
+    @Override
+    public void close( ) throws IOException
+    {
+        if( archivo != null )
+            archivo.close( );
+    }
+
+    /**
+     * Crea las páginas de las columnas hasta la página dada. Si el almacén usa un archivo, la página nueva se proyecta al final del archivo, lo cual lo agranda.
+     * @param pagina La página que se necesita
+     * @throws IOException Se lanza esta excepción si no se pudo proyectar la página
+     */
+    private void asegurarPagina( int pagina ) throws IOException
+    {
+        if( pagina < paginas.length )
+            return;
+
+        ByteBuffer nueva;
+        if( archivo == null )
+            nueva = ByteBuffer.allocate( BYTES_PAGINA );
+        else
+            nueva = archivo.map( FileChannel.MapMode.READ_WRITE, ( long )pagina * BYTES_PAGINA, BYTES_PAGINA );
+        nueva.order( ByteOrder.nativeOrder( ) );
+
+        paginas = Arrays.copyOf( paginas, pagina + 1 );
+        usados = Arrays.copyOf( usados, pagina + 1 );
+        modificados = Arrays.copyOf( modificados, pagina + 1 );
+        paginas[ pagina ] = nueva;
+        usados[ pagina ] = new AtomicLongArray( TAMANO_PAGINA / 64 );
+        modificados[ pagina ] = new AtomicLongArray( TAMANO_PAGINA / 64 );
+    }
+
+    private int codificar( String codigo )
+    {
+        int numero = RegistroCodigos.convertir( codigo );
+        if( numero >= 0 )
+            return numero;
+        String[] otros = otrosCodigos;
+        if( cantidadOtrosCodigos == otros.length )
+            otros = Arrays.copyOf( otros, otros.length * 2 );
+        otros[ cantidadOtrosCodigos ] = codigo;
+        otrosCodigos = otros;
+        cantidadOtrosCodigos++;
+        return -cantidadOtrosCodigos;
+    }
+
+    private int numerar( Vuelo vuelo )
+    {
+        Integer numero = numerosVuelos.get( vuelo );
+        if( numero == null )
+        {
+            numero = numerosVuelos.size( );
+            numerosVuelos.put( vuelo, numero );
+            Vuelo[] lista = listaVuelos;
+            if( numero == lista.length )
+                lista = Arrays.copyOf( lista, numero * 2 );
+            lista[ numero ] = vuelo;
+            listaVuelos = lista;
+        }
+        return numero;
+    }
+
+    private int numerar( Cliente cliente )
+    {
+        Integer numero = numerosClientes.get( cliente );
+        if( numero == null )
+        {
+            numero = numerosClientes.size( );
+            numerosClientes.put( cliente, numero );
+            Cliente[] lista = listaClientes;
+            if( numero == lista.length )
+                lista = Arrays.copyOf( lista, numero * 2 );
+            lista[ numero ] = cliente;
+            listaClientes = lista;
+        }
+        return numero;
+    }
+
+    /**
+     * Lee el valor de una fila en una columna. Leer la cantidad de filas antes que la columna garantiza que se ven las páginas de todas las filas ya agregadas.
+     */
+    private int leer( int columna, int fila )
+    {
+        verificarFila( fila );
+        return paginas[ fila >>> BITS_PAGINA ].getInt( columna + ( fila & MASCARA_PAGINA ) * 4 );
+    }
+
+    private boolean leerBit( AtomicLongArray[] columna, int fila )
+    {
+        verificarFila( fila );
+        int posicion = fila & MASCARA_PAGINA;
+        return ( columna[ fila >>> BITS_PAGINA ].get( posicion >>> 6 ) & ( 1L << posicion ) ) != 0;
+    }
+
+    /**
+     * Cambia atómicamente el bit de una fila en una columna de bits
+     * @return Retorna true si el bit cambió
+     */
+    private static boolean cambiarBit( AtomicLongArray[] columna, int fila, boolean valor )
+    {
+        AtomicLongArray pagina = columna[ fila >>> BITS_PAGINA ];
+        int posicion = fila & MASCARA_PAGINA;
+        long bit = 1L << posicion;
+        long actual;
+        long nuevo;
+        do
+        {
+            actual = pagina.get( posicion >>> 6 );
+            nuevo = valor ? actual | bit : actual & ~bit;
+            if( nuevo == actual )
+                return false;
+        } while( !pagina.compareAndSet( posicion >>> 6, actual, nuevo ) );
+        return true;
+    }
+
+    private void verificarFila( int fila )
+    {
+        if( fila < 0 || fila >= cantidad )
+            throw new IndexOutOfBoundsException( "La fila " + fila + " no está en el almacén" );
+    }
+}
@@ -1,32 +1,62 @@
 package uniandes.dpoo.aerolinea.tiquetes;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import uniandes.dpoo.aerolinea.modelo.Vuelo;
 import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
 
 /**
  * Esta clase representa al módulo del sistema que es capaz de generar nuevos tiquetes, asignándole a cada uno un código único.
+ *
+ * Los códigos no se sortean: cada código nuevo sale de una secuencia (0, 1, 2, ...) que se pasa por una permutación de los números de 7 dígitos. Como la permutación es
+ * biyectiva, dos posiciones distintas de la secuencia nunca dan el mismo código, y como la clave de la permutación se escoge al azar cada vez que arranca el programa, los
+ * códigos consecutivos no se pueden adivinar. Para que muchos hilos puedan vender al mismo tiempo sin competir por el mismo contador, cada hilo reserva bloques de posiciones
+ * de la secuencia y los va gastando sin sincronizarse con los demás.
+ *
+ * Los códigos de los tiquetes que se cargan de archivos no salen de la secuencia de esta ejecución, así que el generador descarta los códigos que ya estaban registrados.
  */
 public class GeneradorTiquetes {
 
-    private static Set<String> codigos = new HashSet<String>();
+    // La cantidad de códigos distintos de 7 dígitos
+    private static final int CANTIDAD_CODIGOS = 10_000_000;
 
-    // Método para generar un código único de 7 dígitos para el tiquete
-    public static String generarCodigo() {
-        int numero = (int) (Math.random() * 10e7);
-        String codigo = "" + numero;
-        while (codigos.contains(codigo)) {
-            numero = (int) (Math.random() * 10e7);
-            codigo = "" + numero;
-        }
+    // La permutación trabaja sobre números de 24 bits (2^24 > 10^7) divididos en dos mitades de 12 bits
+    private static final int BITS_MITAD = 12;
+    private static final int MASCARA_MITAD = (1 << BITS_MITAD) - 1;
+    private static final int RONDAS = 4;
+
+    // La cantidad de posiciones de la secuencia que reserva un hilo cada vez
+    private static final int TAMANO_BLOQUE = 256;
+
+    // Los códigos que ya se usaron, tanto los generados como los de los tiquetes cargados
+    private static final RegistroCodigos codigos = new RegistroCodigos();
+
+    // La siguiente posición de la secuencia que no ha sido reservada por ningún hilo
+    private static final AtomicInteger siguienteBloque = new AtomicInteger();
 
-        while (codigo.length() < 7) {
-            codigo = "0" + codigo;
+    // El bloque de posiciones que tiene reservado cada hilo: [siguiente posición, fin del bloque]
+    private static final ThreadLocal<int[]> bloqueHilo = ThreadLocal.withInitial(() -> new int[] { 0, 0 });
+
+    // Las claves de las rondas de la permutación
+    private static final int[] claves = new int[RONDAS];
+
+    static {
+        SecureRandom azar = new SecureRandom();
+        for (int i = 0; i < RONDAS; i++) {
+            claves[i] = azar.nextInt();
         }
+    }
 
-        return codigo;
+    // Método para generar un código único de 7 dígitos para el tiquete. El código queda registrado.
+    public static String generarCodigo() {
+        while (true) {
+            String codigo = RegistroCodigos.formatear(permutar(siguientePosicion()));
+            // registrar es atómico: si el código ya estaba (por ejemplo porque se cargó de un archivo), se pasa al siguiente
+            if (codigos.registrar(codigo)) {
+                return codigo;
+            }
+        }
     }
 
     public static Tiquete generarTiquete(Vuelo vuelo, Cliente cliente, int tarifa) {
@@ -36,10 +66,57 @@ public class GeneradorTiquetes {
     }
 
     public static void registrarTiquete(Tiquete unTiquete) {
-        codigos.add(unTiquete.getCodigo());
+        codigos.registrar(unTiquete.getCodigo());
+    }
+
+    // Libera el código de un tiquete que se generó pero cuya venta no se pudo completar
+    public static void liberarCodigo(String codigoTiquete) {
+        codigos.liberar(codigoTiquete);
     }
 
     public static boolean validarTiquete(String codigoTiquete) {
-        return codigos.contains(codigoTiquete);
+        return codigos.contiene(codigoTiquete);
+    }
+
+    // Retorna la siguiente posición de la secuencia, reservando un bloque nuevo cuando el hilo gastó el suyo
+    private static int siguientePosicion() {
+        int[] bloque = bloqueHilo.get();
+        if (bloque[0] == bloque[1]) {
+            int inicio = siguienteBloque.getAndAdd(TAMANO_BLOQUE);
+            if (inicio >= CANTIDAD_CODIGOS || inicio < 0) {
+                siguienteBloque.set(CANTIDAD_CODIGOS);
+                throw new IllegalStateException("Ya se usaron todos los códigos de tiquete");
+            }
+            bloque[0] = inicio;
+            bloque[1] = Math.min(inicio + TAMANO_BLOQUE, CANTIDAD_CODIGOS);
+        }
+        return bloque[0]++;
+    }
+
+    // Permuta los números entre 0 y CANTIDAD_CODIGOS - 1 con una red de Feistel de 24 bits.
+    // Si el resultado se sale del rango, se vuelve a permutar hasta que caiga dentro (en promedio se repite menos de 2 veces),
+    // lo cual mantiene la permutación biyectiva dentro del rango.
+    static int permutar(int posicion) {
+        int valor = posicion;
+        do {
+            int izquierda = valor >>> BITS_MITAD;
+            int derecha = valor & MASCARA_MITAD;
+            for (int i = 0; i < RONDAS; i++) {
+                int nueva = izquierda ^ ronda(derecha, claves[i]);
+                izquierda = derecha;
+                derecha = nueva;
+            }
+            valor = (izquierda << BITS_MITAD) | derecha;
+        } while (valor >= CANTIDAD_CODIGOS);
+        return valor;
+    }
+
+    // La función de cada ronda: mezcla una mitad con la clave de la ronda
+    private static int ronda(int mitad, int clave) {
+        int h = (mitad ^ clave) * 0x9E3779B1;
+        h ^= h >>> 15;
+        h *= 0x85EBCA77;
+        h ^= h >>> 13;
+        return h & MASCARA_MITAD;
     }
 }
@@ -0,0 +1,131 @@
+package uniandes.dpoo.aerolinea.tiquetes;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Esta clase lleva el registro de los códigos de tiquete que ya se usaron.
+ *
+ * Los códigos normales tienen exactamente 7 dígitos, así que se registran como bits dentro de un arreglo de 10^7 bits (1,25 MB en total, sin importar cuántos tiquetes haya).
+ * Cada bit se marca con una operación atómica, de modo que el registro se puede usar desde varios hilos sin candados. Los códigos que no tienen esa forma, que sólo pueden
+ * venir de archivos escritos por otras versiones del programa, se guardan aparte en un conjunto.
+ */
+public class RegistroCodigos
+{
+    /**
+     * La cantidad de dígitos de los códigos que se guardan como bits
+     */
+    private static final int DIGITOS = 7;
+
+    /**
+     * La cantidad de códigos distintos de 7 dígitos
+     */
+    private static final int CANTIDAD_CODIGOS = 10_000_000;
+
+    /**
+     * Los bits de los códigos de 7 dígitos. El código n corresponde al bit (n % 64) de la posición (n / 64).
+     */
+    private final AtomicLongArray bits;
+
+    /**
+     * Los códigos que no tienen exactamente 7 dígitos
+     */
+    private final Set<String> otrosCodigos;
+
+    /**
+     * Construye un registro vacío
+     */
+    public RegistroCodigos( )
+    {
+        bits = new AtomicLongArray( ( CANTIDAD_CODIGOS + 63 ) / 64 );
+        otrosCodigos = ConcurrentHashMap.newKeySet( );
+    }
+
+    /**
+     * Registra un código
+     * @param codigo El código que se quiere registrar
+     * @return Retorna true si el código no estaba registrado y false si ya lo estaba
+     */
+    public boolean registrar( String codigo )
+    {
+        int numero = convertir( codigo );
+        if( numero < 0 )
+            return otrosCodigos.add( codigo );
+
+        int posicion = numero >>> 6;
+        long bit = 1L << numero;
+        long actual;
+        do
+        {
+            actual = bits.get( posicion );
+            if( ( actual & bit ) != 0 )
+                return false;
+        } while( !bits.compareAndSet( posicion, actual, actual | bit ) );
+        return true;
+    }
+
+    /**
+     * Indica si un código ya está registrado
+     * @param codigo El código que se quiere consultar
+     * @return Retorna true si el código está registrado
+     */
+    public boolean contiene( String codigo )
+    {
+        int numero = convertir( codigo );
+        if( numero < 0 )
+            return otrosCodigos.contains( codigo );
+
+        return ( bits.get( numero >>> 6 ) & ( 1L << numero ) ) != 0;
+    }
+
+    /**
+     * Quita un código del registro, por ejemplo el de un tiquete cuya venta no se pudo completar
+     * @param codigo El código que se quiere quitar
+     */
+    public void liberar( String codigo )
+    {
+        int numero = convertir( codigo );
+        if( numero < 0 )
+            otrosCodigos.remove( codigo );
+        else
+            bits.getAndAccumulate( numero >>> 6, 1L << numero, ( a, b ) -> a & ~b );
+    }
+
+    /**
+     * Convierte un código de 7 dígitos en su número
+     * @param codigo El código
+     * @return El número del código, o -1 si el código no tiene exactamente 7 dígitos
+     */
+    public static int convertir( String codigo )
+    {
+        if( codigo.length( ) != DIGITOS )
+            return -1;
+
+        int numero = 0;
+        for( int i = 0; i < DIGITOS; i++ )
+        {
+            char c = codigo.charAt( i );
+            if( c < '0' || c > '9' )
+                return -1;
+            numero = numero * 10 + ( c - '0' );
+        }
+        return numero;
+    }
+
+    /**
+     * Convierte un número en su código de 7 dígitos, completando con ceros a la izquierda. Es la operación inversa de convertir.
+     * @param numero El número, entre 0 y 10^7 - 1
+     * @return El código
+     */
+    public static String formatear( int numero )
+    {
+        char[] digitos = new char[DIGITOS];
+        for( int i = DIGITOS - 1; i >= 0; i-- )
+        {
+            digitos[ i ] = ( char )( '0' + numero % 10 );
+            numero /= 10;
+        }
+        return new String( digitos );
+    }
+}
@@ -8,9 +8,14 @@ public class Tiquete {
 	// Atributos
     private String codigo;
     private int tarifa;
-    private boolean usado;
+    // usado y modificado son volatile porque se pueden cambiar desde un hilo distinto al que vendió el tiquete
+    private volatile boolean usado;
     private Vuelo vuelo;
     private Cliente cliente;
+    // Indica si el tiquete cambió desde la última vez que se salvó
+    private volatile boolean modificado;
+    // Indica si el tiquete ya está sumado en los totales de su cliente. Desde ese momento, cada cambio de usado se le avisa al cliente
+    private boolean contabilizado;
 
     // Constructor
     public Tiquete(String codigo, Vuelo vuelo, Cliente cliente, int tarifa) {
@@ -19,8 +24,12 @@ public class Tiquete {
         this.cliente = cliente;
         this.tarifa = tarifa;
         this.usado = false;
+        this.modificado = true;
     }
 
+    // Constructor para las subclases que guardan los datos del tiquete en otra parte, como TiqueteAlmacenado
+    protected Tiquete() {
+    }
 
  
 
@@ -34,8 +43,9 @@ public class Tiquete {
         return tarifa;
     }
 
+    // Un tiquete cuenta como usado si se marcó como usado o si su vuelo ya se realizó
     public boolean isUsado() {
-        return usado;
+        return usado || vuelo.isRealizado();
     }
 
     public Vuelo getVuelo() {
@@ -47,13 +57,54 @@ public class Tiquete {
     }
 
     // Métodos de modificación (setters)
+    // El candado es el del vuelo, el mismo que se usa al registrar que el vuelo se realizó, para que el cliente
+    // reciba un solo aviso por cada cambio aunque varios hilos marquen el tiquete o cierren el vuelo a la vez
     public void setUsado(boolean usado) {
-        this.usado = usado;
+        synchronized (vuelo) {
+            boolean antes = isUsado();
+            this.usado = usado;
+            if (antes == isUsado()) {
+                return;
+            }
+            if (contabilizado) {
+                cliente.actualizarSaldo(this);
+            }
+        }
+        marcarComoModificado();
+    }
+
+    // Lo llama el cliente cuando suma el tiquete en sus totales. Retorna si el tiquete está usado en ese momento;
+    // los cambios posteriores se le avisan al cliente con actualizarSaldo
+    public boolean contabilizar() {
+        synchronized (vuelo) {
+            contabilizado = true;
+            return isUsado();
+        }
+    }
+
+    // Indica si el tiquete ya está sumado en los totales de su cliente. Sólo se debe llamar teniendo el candado del vuelo
+    public boolean isContabilizado() {
+        return contabilizado;
     }
 
     // Método para marcar un tiquete como usado
     public void marcarComoUsado() {
-        this.usado = true;
+        setUsado(true);
+    }
+
+    // Métodos para saber qué tiquetes hay que volver a salvar
+    public boolean isModificado() {
+        return modificado;
+    }
+
+    // Al marcar el tiquete también se marca su vuelo, para que al salvar sólo haya que revisar los tiquetes de los vuelos modificados
+    public void marcarComoModificado() {
+        this.modificado = true;
+        vuelo.marcarComoModificado();
+    }
+
+    public void marcarComoGuardado() {
+        this.modificado = false;
     }
 
     // Método equals para comparar tiquetes (por su código)
@@ -0,0 +1,121 @@
+package uniandes.dpoo.aerolinea.tiquetes;
+
+import uniandes.dpoo.aerolinea.modelo.Vuelo;
+import uniandes.dpoo.aerolinea.modelo.cliente.Cliente;
+
+/**
+ * Esta clase es un tiquete que no guarda sus propios datos sino que los lee de una fila de un AlmacenTiquetes.
+ *
+ * Los objetos de esta clase son temporales: el almacén crea uno cada vez que se pide un tiquete, y dos objetos que representan la misma fila son iguales. Los cambios de
+ * usado y de modificado se escriben en la fila, así que los ven todos los objetos que representan al mismo tiquete.
+ *
+ * Los tiquetes del almacén ya están sumados en los totales de sus clientes, y todos son de vuelos realizados, así que cambiar si están usados no cambia esos totales.
+ */
+class TiqueteAlmacenado extends Tiquete
+{
+    /**
+     * El almacén donde están los datos del tiquete
+     */
+    private final AlmacenTiquetes almacen;
+
+    /**
+     * La fila del tiquete en el almacén
+     */
+    private final int fila;
+
+    /**
+     * Construye un tiquete para una fila de un almacén
+     * @param almacen El almacén
+     * @param fila La fila del tiquete
+     */
+    TiqueteAlmacenado( AlmacenTiquetes almacen, int fila )
+    {
+        this.almacen = almacen;
+        this.fila = fila;
+    }
+
+    @Override
+    public String getCodigo( )
+    {
+        return almacen.getCodigo( fila );
+    }
+
+    @Override
+    public int getTarifa( )
+    {
+        return almacen.getTarifa( fila );
+    }
+
+    @Override
+    public Vuelo getVuelo( )
+    {
+        return almacen.getVuelo( fila );
+    }
+
+    @Override
+    public Cliente getCliente( )
+    {
+        return almacen.getCliente( fila );
+    }
+
+    @Override
+    public boolean isUsado( )
+    {
+        return almacen.isUsado( fila ) || getVuelo( ).isRealizado( );
+    }
+
+    @Override
+    public void setUsado( boolean usado )
+    {
+        if( almacen.setUsado( fila, usado ) )
+            marcarComoModificado( );
+    }
+
+    @Override
+    public boolean contabilizar( )
+    {
+        return isUsado( );
+    }
+
+    @Override
+    public boolean isContabilizado( )
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isModificado( )
+    {
+        return almacen.isModificado( fila );
+    }
+
+    @Override
+    public void marcarComoModificado( )
+    {
+        almacen.setModificado( fila, true );
+        getVuelo( ).marcarComoModificado( );
+    }
+
+    @Override
+    public void marcarComoGuardado( )
+    {
+        almacen.setModificado( fila, false );
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if( this == obj )
+            return true;
+        if( obj == null || getClass( ) != obj.getClass( ) )
+            return false;
+        TiqueteAlmacenado otro = ( TiqueteAlmacenado )obj;
+        return almacen == otro.almacen && fila == otro.fila;
+    }
+
+    @Override
+    public int hashCode( )
+    {
+        return fila;
+    }
+}